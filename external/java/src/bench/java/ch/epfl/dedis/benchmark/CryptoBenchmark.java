@@ -0,0 +1,155 @@
+package ch.epfl.dedis.benchmark;
+
+import ch.epfl.dedis.lib.crypto.Encryption;
+import ch.epfl.dedis.lib.crypto.KeyPair;
+import ch.epfl.dedis.lib.crypto.Point;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.crypto.VerificationKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the primitives in lib/crypto.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+    private KeyPair kp;
+    private Point other;
+    private byte[] msg;
+    private SchnorrSig sig;
+    private VerificationKey vk;
+
+    /**
+     * The data of the encryption benchmarks, so that only they run for every length.
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"1024", "1048576"})
+        public int dataLength;
+
+        private byte[] keyMaterial;
+        private byte[] data;
+        private byte[] encrypted;
+        private ByteBuffer plainBuffer;
+        private ByteBuffer encryptedBuffer;
+        private byte[] encryptedStream;
+        private byte[] readBuffer = new byte[64 * 1024];
+
+        @Setup
+        public void setup() throws Exception {
+            keyMaterial = new byte[Encryption.ivLength + 16];
+            new Random(1).nextBytes(keyMaterial);
+            data = new byte[dataLength];
+            new Random(2).nextBytes(data);
+            encrypted = Encryption.encryptData(data, keyMaterial);
+            plainBuffer = ByteBuffer.allocateDirect(dataLength);
+            plainBuffer.put(data).flip();
+            encryptedBuffer = Encryption.encryptBuffer(plainBuffer, keyMaterial);
+            encryptedStream = new byte[encryptedBuffer.remaining()];
+            encryptedBuffer.duplicate().get(encryptedStream);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        kp = new KeyPair();
+        other = new KeyPair().Point;
+        msg = "benchmark message".getBytes();
+        sig = new SchnorrSig(msg, kp.Scalar);
+        vk = new VerificationKey(kp.Point);
+    }
+
+    @Benchmark
+    public boolean schnorrVerify() {
+        return sig.verify(msg, kp.Point);
+    }
+
+    @Benchmark
+    public boolean schnorrVerifyCachedKey() {
+        return vk.verify(msg, sig);
+    }
+
+    @Benchmark
+    public Point pointAdd() {
+        return kp.Point.add(other);
+    }
+
+    @Benchmark
+    public Point pointScalarMult() {
+        return other.scalarMult(kp.Scalar);
+    }
+
+    @Benchmark
+    public Point baseScalarMult() {
+        return kp.Scalar.scalarMult(null);
+    }
+
+    @Benchmark
+    public byte[] encryptData(Data d) throws Exception {
+        return Encryption.encryptData(d.data, d.keyMaterial);
+    }
+
+    @Benchmark
+    public byte[] decryptData(Data d) throws Exception {
+        return Encryption.decryptData(d.encrypted, d.keyMaterial);
+    }
+
+    @Benchmark
+    public ByteBuffer encryptBuffer(Data d) throws Exception {
+        return Encryption.encryptBuffer(d.plainBuffer, d.keyMaterial);
+    }
+
+    @Benchmark
+    public ByteBuffer decryptBuffer(Data d) throws Exception {
+        return Encryption.decryptBuffer(d.encryptedBuffer, d.keyMaterial);
+    }
+
+    @Benchmark
+    public void encryptStream(Data d) throws Exception {
+        try (OutputStream out = Encryption.encryptStream(new NullOutputStream(), d.keyMaterial)) {
+            out.write(d.data);
+        }
+    }
+
+    @Benchmark
+    public long decryptStream(Data d) throws Exception {
+        long total = 0;
+        try (InputStream in = Encryption.decryptStream(new ByteArrayInputStream(d.encryptedStream), d.keyMaterial)) {
+            for (int n = in.read(d.readBuffer); n >= 0; n = in.read(d.readBuffer)) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
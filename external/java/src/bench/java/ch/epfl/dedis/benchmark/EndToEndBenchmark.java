@@ -0,0 +1,130 @@
+package ch.epfl.dedis.benchmark;
+
+import ch.epfl.dedis.lleap.FakeConode;
+import ch.epfl.dedis.lleap.KeyValueBlock;
+import ch.epfl.dedis.lleap.KeyValueResult;
+import ch.epfl.dedis.lleap.SkipchainRPC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput and latency of the whole SkipchainRPC stack - websockets, routing, parsing and
+ * verification - against a FakeConode in the same JVM. The latency parameter delays the replies of the FakeConode
+ * like the round trip to a remote conode.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    private static final int keys = 1000;
+    // pairs stored per invocation of setKeyValues and setKeyValueLoop
+    private static final int batch = 64;
+
+    @Param({"0", "20"})
+    public int latency;
+
+    private final AtomicLong counter = new AtomicLong();
+    private KeyPair writer;
+    private FakeConode conode;
+    private SkipchainRPC sc;
+    private List<byte[]> bulk;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(2048);
+        writer = gen.generateKeyPair();
+        conode = FakeConode.startNew(writer.getPublic());
+        sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+        bulk = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            byte[] key = ("key" + i).getBytes();
+            sc.setKeyValue(key, "value".getBytes(), writer.getPrivate());
+            if (i < 64) {
+                bulk.add(key);
+            }
+        }
+        conode.setLatency(latency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        conode.shutdown();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public KeyValueBlock getKeyValueBlock() throws Exception {
+        return sc.getKeyValueBlock(("key" + counter.getAndIncrement() % keys).getBytes());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean getAndVerify() throws Exception {
+        KeyValueBlock kvb = sc.getKeyValueBlock(("key" + counter.getAndIncrement() % keys).getBytes());
+        return kvb.verifyBlock(sc.getGenesis());
+    }
+
+    @Benchmark
+    public List<KeyValueResult<KeyValueBlock>> getKeyValueBlocks() {
+        return sc.getKeyValueBlocks(bulk);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void setKeyValue() throws Exception {
+        sc.setKeyValue(("new" + counter.getAndIncrement()).getBytes(), "value".getBytes(), writer.getPrivate());
+    }
+
+    /**
+     * Stores a batch of pairs with setKeyValues, to compare with setKeyValueLoop.
+     */
+    @Benchmark
+    public List<KeyValueResult<Void>> setKeyValues() {
+        List<byte[]> keys = new ArrayList<>(batch);
+        List<byte[]> values = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            keys.add(("bulk" + counter.getAndIncrement()).getBytes());
+            values.add("value".getBytes());
+        }
+        return sc.setKeyValues(keys, values, writer.getPrivate());
+    }
+
+    /**
+     * Stores a batch of pairs one after the other with setKeyValue.
+     */
+    @Benchmark
+    public void setKeyValueLoop() throws Exception {
+        for (int i = 0; i < batch; i++) {
+            sc.setKeyValue(("loop" + counter.getAndIncrement()).getBytes(), "value".getBytes(), writer.getPrivate());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean status() {
+        return sc.verify();
+    }
+}
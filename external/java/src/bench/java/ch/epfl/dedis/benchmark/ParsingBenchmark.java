@@ -0,0 +1,101 @@
+package ch.epfl.dedis.benchmark;
+
+import ch.epfl.dedis.lib.CISC;
+import ch.epfl.dedis.lib.Roster;
+import ch.epfl.dedis.lleap.BlockVerifier;
+import ch.epfl.dedis.lleap.FakeChain;
+import ch.epfl.dedis.lleap.KeyValueBlock;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.RosterProto;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing and verifying the blocks returned by the lleap service, using blocks of a FakeChain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+    @Param({"1024", "1048576"})
+    public int valueLength;
+
+    private FakeChain chain;
+    private RosterProto.Roster rosterProto;
+    private LleapProto.GetValueResponse resp;
+    private byte[] respBytes;
+    private List<LleapProto.GetValueResponse> batch;
+    private BlockVerifier verifier;
+
+    @Setup
+    public void setup() throws Exception {
+        chain = new FakeChain();
+        rosterProto = chain.getGenesis().getProto().getRoster();
+        resp = chain.getValue(1, "key".getBytes(), new byte[valueLength]);
+        respBytes = resp.toByteArray();
+        batch = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            batch.add(chain.getValue(i + 1, ("key" + i).getBytes(), "value".getBytes()));
+        }
+        verifier = new BlockVerifier(chain.getGenesis());
+    }
+
+    @Benchmark
+    public Roster rosterFromProto() throws Exception {
+        return new Roster(rosterProto);
+    }
+
+    @Benchmark
+    public byte[] ciscGetValue() throws Exception {
+        return new CISC(resp.getSkipblock()).getValue("newvalue");
+    }
+
+    @Benchmark
+    public byte[] keyValueBlockGetValue() throws Exception {
+        return new KeyValueBlock(respBytes).getValue();
+    }
+
+    @Benchmark
+    public ByteBuffer keyValueBlockValueBuffer() throws Exception {
+        return new KeyValueBlock(resp).getValueBuffer();
+    }
+
+    @Benchmark
+    public boolean verifyBlock() throws Exception {
+        // A new block every time, as a block remembers that it has been verified.
+        return new KeyValueBlock(resp).verifyBlock(chain.getGenesis());
+    }
+
+    @Benchmark
+    public boolean blockVerifier() throws Exception {
+        return verifier.verify(new KeyValueBlock(resp));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Boolean> blockVerifierBatch() throws Exception {
+        List<KeyValueBlock> blocks = new ArrayList<>(batch.size());
+        for (LleapProto.GetValueResponse r : batch) {
+            blocks.add(new KeyValueBlock(r));
+        }
+        return verifier.verify(blocks);
+    }
+}
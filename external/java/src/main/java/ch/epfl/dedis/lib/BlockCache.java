@@ -0,0 +1,123 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * dedis/lib
+ * BlockCache.java
+ * Purpose: Keeps serialized blocks by their id, so that they don't have to be fetched from the
+ * conodes again. The most recently used blocks are kept on the heap up to a maximum number of
+ * bytes. If a BlockStore is given, all blocks are also written to it and blocks that are not on
+ * the heap anymore are read back from it.
+ * <p>
+ * Only blocks that don't change anymore may be put into the cache. The cache is thread-safe.
+ */
+public class BlockCache {
+    private final long maxBytes;
+    private final BlockStore store;
+    // in access order, so the first entry is the least recently used one
+    private final LinkedHashMap<Sha256id, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Logger logger = LoggerFactory.getLogger(BlockCache.class);
+
+    /**
+     * Creates a cache that only keeps the blocks on the heap.
+     *
+     * @param maxBytes how many bytes of blocks are kept at most
+     */
+    public BlockCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Creates a cache that keeps the most recently used blocks on the heap and all blocks in the
+     * store.
+     *
+     * @param maxBytes how many bytes of blocks are kept on the heap at most
+     * @param store    where all blocks are kept, or null
+     */
+    public BlockCache(long maxBytes, BlockStore store) {
+        this.maxBytes = maxBytes;
+        this.store = store;
+    }
+
+    /**
+     * Returns the block with the given id.
+     *
+     * @param id the id of the block
+     * @return the serialized block, or null if it is not in the cache. The returned array must not
+     * be changed.
+     */
+    public byte[] get(Sha256id id) {
+        byte[] block;
+        synchronized (this) {
+            block = blocks.get(id);
+        }
+        if (block == null && store != null) {
+            block = store.get(id);
+            if (block != null) {
+                remember(id, block);
+            }
+        }
+        (block == null ? misses : hits).incrementAndGet();
+        return block;
+    }
+
+    /**
+     * Adds a block to the cache. The array must not be changed afterwards.
+     *
+     * @param id    the id of the block
+     * @param block the serialized block
+     */
+    public void put(Sha256id id, byte[] block) {
+        remember(id, block);
+        if (store != null) {
+            try {
+                store.put(id, block);
+            } catch (CothorityException e) {
+                // The block is still on the heap, and fetching it again is always possible.
+                logger.warn("Couldn't store block {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of blocks kept on the heap.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized void remember(Sha256id id, byte[] block) {
+        if (block.length > maxBytes) {
+            return;
+        }
+        byte[] old = blocks.put(id, block);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += block.length;
+        Iterator<Map.Entry<Sha256id, byte[]>> lru = blocks.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= lru.next().getValue().length;
+            lru.remove();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import ch.epfl.dedis.lib.exception.CothorityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * dedis/lib
+ * BlockStore.java
+ * Purpose: An append-only store of serialized blocks on disk, so that blocks don't have to be
+ * fetched again after a restart.
+ * <p>
+ * The records are kept in a data file that is memory-mapped in segments, and every record that
+ * is written is appended to an index file holding its id, offset, length and checksum. When the
+ * store is opened, only the index is read. Records are never changed or removed, so the store
+ * should only hold blocks that don't change anymore.
+ * <p>
+ * The mapped records are only guaranteed to be on disk once the store is closed, so after a crash
+ * the index can point to records that were never written. Every record is checked against its
+ * checksum when it is read, and a bad record is dropped, so that it can be put again.
+ */
+public class BlockStore implements Closeable {
+    private static final int idLength = Sha256id.length;
+    // id, offset, length, CRC32 of id and record
+    private static final int indexEntryLength = idLength + 8 + 4 + 4;
+    private static final int defaultSegmentSize = 64 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final RandomAccessFile data;
+    private final RandomAccessFile index;
+    private final Map<Sha256id, Location> locations = new ConcurrentHashMap<>();
+    private volatile List<MappedByteBuffer> segments = new ArrayList<>();
+    private long end;
+    private final Logger logger = LoggerFactory.getLogger(BlockStore.class);
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     *
+     * @param directory where the files of the store are kept
+     * @throws CothorityException if the files cannot be opened or read.
+     */
+    public BlockStore(File directory) throws CothorityException {
+        this(directory, defaultSegmentSize);
+    }
+
+    BlockStore(File directory, int segmentSize) throws CothorityException {
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new CothorityException("cannot create directory " + directory);
+        }
+        try {
+            data = new RandomAccessFile(new File(directory, "blocks.data"), "rw");
+            index = new RandomAccessFile(new File(directory, "blocks.index"), "rw");
+            readIndex();
+        } catch (IOException e) {
+            throw new CothorityException(e);
+        }
+    }
+
+    /**
+     * Returns the record stored under id.
+     *
+     * @param id the id of the record
+     * @return a copy of the record, or null if there is no intact record with this id.
+     */
+    public byte[] get(Sha256id id) {
+        Location loc = locations.get(id);
+        if (loc == null) {
+            return null;
+        }
+        ByteBuffer segment = segments.get(loc.segment()).duplicate();
+        segment.position(loc.position());
+        byte[] record = new byte[loc.length];
+        segment.get(record);
+        if (checksum(id, record) != loc.checksum) {
+            logger.warn("Dropping corrupted block {} from the store", id);
+            locations.remove(id, loc);
+            return null;
+        }
+        return record;
+    }
+
+    public boolean contains(Sha256id id) {
+        return locations.containsKey(id);
+    }
+
+    /**
+     * Appends a record to the store. If there is already a record with this id, nothing is
+     * written, as records never change. A corrupted record is only replaced once get found it.
+     *
+     * @param id     the id of the record
+     * @param record the serialized block
+     * @throws CothorityException if the record is bigger than a segment or cannot be written.
+     */
+    public synchronized void put(Sha256id id, byte[] record) throws CothorityException {
+        if (locations.containsKey(id)) {
+            return;
+        }
+        if (record.length > segmentSize) {
+            throw new CothorityException("record of " + record.length + " bytes is too big for the store");
+        }
+        // Records don't cross segments, so every record can be read from a single mapping.
+        long remaining = segmentSize - end % segmentSize;
+        if (record.length > remaining) {
+            end += remaining;
+        }
+        Location loc = new Location(end, record.length, checksum(id, record));
+        try {
+            while (segments.size() <= loc.segment()) {
+                mapSegment(segments.size());
+            }
+            ByteBuffer segment = segments.get(loc.segment()).duplicate();
+            segment.position(loc.position());
+            segment.put(record);
+
+            ByteBuffer entry = ByteBuffer.allocate(indexEntryLength);
+            entry.put(id.getId()).putLong(loc.offset).putInt(loc.length).putInt(loc.checksum).flip();
+            index.getChannel().write(entry, index.length());
+        } catch (IOException e) {
+            throw new CothorityException(e);
+        }
+        end = loc.offset + loc.length;
+        locations.put(id, loc);
+    }
+
+    /**
+     * @return the number of records in the store.
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Writes all records to disk and closes the files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        segments = new ArrayList<>();
+        locations.clear();
+        data.close();
+        index.close();
+    }
+
+    private void readIndex() throws IOException, CothorityException {
+        // A partially written entry at the end is dropped.
+        long entries = index.length() / indexEntryLength;
+        byte[] all = new byte[(int) (entries * indexEntryLength)];
+        index.readFully(all);
+        ByteBuffer buf = ByteBuffer.wrap(all);
+        byte[] id = new byte[idLength];
+        for (long i = 0; i < entries; i++) {
+            buf.get(id);
+            Location loc = new Location(buf.getLong(), buf.getInt(), buf.getInt());
+            if (loc.offset < 0 || loc.length < 0 || loc.position() + (long) loc.length > segmentSize) {
+                // The entry didn't make it to disk, so neither it nor what follows it can be trusted.
+                logger.warn("Block store index is corrupted, dropping {} entries", entries - i);
+                entries = i;
+                break;
+            }
+            // A later entry for the same id replaces a corrupted record.
+            try {
+                locations.put(new Sha256id(id), loc);
+            } catch (CothorityCryptoException e) {
+                throw new CothorityException(e);
+            }
+            end = Math.max(end, loc.offset + loc.length);
+        }
+        index.setLength(entries * indexEntryLength);
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        for (int s = 0; (long) s * segmentSize < end; s++) {
+            mapped.add(data.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) s * segmentSize, segmentSize));
+        }
+        segments = mapped;
+    }
+
+    private static int checksum(Sha256id id, byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(id.getId());
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private void mapSegment(int s) throws IOException {
+        List<MappedByteBuffer> mapped = new ArrayList<>(segments);
+        mapped.add(data.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) s * segmentSize, segmentSize));
+        // Readers only ever see a complete list.
+        segments = mapped;
+    }
+
+    private final class Location {
+        final long offset;
+        final int length;
+        final int checksum;
+
+        Location(long offset, int length, int checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        int segment() {
+            return (int) (offset / segmentSize);
+        }
+
+        int position() {
+            return (int) (offset % segmentSize);
+        }
+    }
+}
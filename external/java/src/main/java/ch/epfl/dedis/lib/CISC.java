@@ -5,11 +5,12 @@ import ch.epfl.dedis.lleap.KeyValueBlock;
 import ch.epfl.dedis.proto.IdentityProto;
 import ch.epfl.dedis.proto.SkipBlockProto;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.io.IOException;
 
 /**
  * CISC Identity SkipChain is a definition of how key/value pairs are stored on a skipchain. It can be used for
@@ -17,22 +18,25 @@ import java.util.Arrays;
  */
 public class CISC {
     private SkipBlock block;
-    private IdentityProto.Data data = null;
+    // the marshalled IdentityProto.Data, a view on the data of the block
+    private final ByteString protobuf;
+    private volatile IdentityProto.Data data = null;
     private final Logger logger = LoggerFactory.getLogger(CISC.class);
 
 
     /**
-     * Initialises a CISC with a skipblock.
+     * Initialises a CISC with a skipblock. The data of the block is only parsed when it is first accessed, and
+     * without copying it.
      * @param block
      */
     public CISC(SkipBlock block) throws InvalidProtocolBufferException, CothorityException {
         this.block = block;
         // Due to an exotic marshalling in the CISC service we need to start decoding at position 16.
-        ByteString protobuf = ByteString.copyFrom(block.getData()).substring(16);
-        this.data = IdentityProto.Data.parseFrom(protobuf);
-        if (this.data == null){
-            throw new CothorityException("cisc data is null");
+        ByteString blockData = block.getProto().getData();
+        if (blockData.size() < 16) {
+            throw new CothorityException("cisc data is too short");
         }
+        this.protobuf = blockData.substring(16);
     }
 
     /**
@@ -44,16 +48,55 @@ public class CISC {
     }
 
     public byte[] getValue(String key) throws CothorityException {
-        if (!this.data.getStorageMap().containsKey(key)) {
+        ByteString value = getValueBS(key);
+        if (value == null) {
             return null;
         }
-        return this.data.getStorageMap().get(key).toByteArray();
+        return value.toByteArray();
+    }
+
+    /**
+     * Returns the value stored under key without copying it. The ByteString is immutable and
+     * asReadOnlyByteBuffer gives a ByteBuffer view on it.
+     *
+     * @param key the key in the storage map
+     * @return the value, or null if there is no such key.
+     * @throws CothorityException if the data of the block cannot be parsed.
+     */
+    public ByteString getValueBS(String key) throws CothorityException {
+        return getData().getStorageMap().get(key);
     }
 
     public byte[] getDeviceKey(String name){
+        IdentityProto.Data data;
+        try {
+            data = getData();
+        } catch (CothorityException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
         if (!data.containsDevice("service")){
             return null;
         }
         return data.getDeviceOrThrow("service").getPoint().toByteArray();
     }
+
+    /**
+     * Parses the data of the block the first time it is needed. The fields of the parsed data are
+     * views on the data of the block instead of copies.
+     */
+    private IdentityProto.Data getData() throws CothorityException {
+        IdentityProto.Data d = data;
+        if (d == null) {
+            try {
+                CodedInputStream input = protobuf.newCodedInput();
+                input.enableAliasing(true);
+                d = IdentityProto.Data.parseFrom(input);
+            } catch (IOException e) {
+                throw new CothorityException(e);
+            }
+            data = d;
+        }
+        return d;
+    }
 }
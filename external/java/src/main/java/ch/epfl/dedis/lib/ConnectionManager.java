@@ -0,0 +1,558 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityRefusedException;
+import ch.epfl.dedis.lib.exception.CothorityUnreachableException;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * dedis/lib
+ * ConnectionManager.java
+ * Purpose: Keeps long-lived websockets to the conodes, one small pool per conode and service
+ * path, so that a request doesn't have to pay for a new connection and handshake.
+ * <p>
+ * A conode answers the requests of one websocket in the order it receives them, so the replies
+ * are correlated to the requests by keeping the requests of every connection in a FIFO queue.
+ * If a conode closes the connection with an error, only the request at the head of the queue
+ * failed, with a CothorityRefusedException, and the requests behind it are re-sent on a new
+ * connection. If no connection can be opened, the requests fail with a
+ * CothorityUnreachableException.
+ * <p>
+ * A request that gets no reply within the request timeout fails, and so do all requests sent
+ * on the same websocket, which is then closed. This way a connection that silently died, e.g.
+ * because a firewall dropped it while it was idle, doesn't keep its requests waiting forever.
+ * Likewise, if the websocket handshake doesn't finish within the connect timeout, or within the
+ * request timeout if that is shorter, the requests waiting for the connection fail with a
+ * CothorityUnreachableException.
+ * <p>
+ * If Metrics are enabled, the time to connect and the time of every request once it is sent on
+ * an open websocket are recorded separately.
+ */
+public class ConnectionManager {
+    private static final ConnectionManager defaultManager = new ConnectionManager();
+
+    // Every request is re-sent at most this often after its connection got closed by the conode.
+    private static final int maxRetries = 1;
+    private static final int connectTimeout = 10000;
+    private static final int defaultRequestTimeout = 60000;
+    // Checks the deadlines of the requests of all ConnectionManagers.
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "conode request timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int connectionsPerPath;
+    private final Executor executor;
+    private final long requestTimeout;
+    private final long handshakeTimeout;
+    private final Map<URI, Pool> pools = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
+
+    /**
+     * Creates a ConnectionManager with up to four connections per conode and service path and a
+     * request timeout of one minute. The futures are completed on the common fork-join pool.
+     */
+    public ConnectionManager() {
+        this(4, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a ConnectionManager.
+     *
+     * @param connectionsPerPath how many websockets may be opened in parallel to the same
+     *                           conode and service path.
+     * @param executor           used to complete the futures, so that the callers' continuations
+     *                           don't run on the thread reading the websocket.
+     */
+    public ConnectionManager(int connectionsPerPath, Executor executor) {
+        this(connectionsPerPath, executor, defaultRequestTimeout);
+    }
+
+    /**
+     * Creates a ConnectionManager.
+     *
+     * @param connectionsPerPath how many websockets may be opened in parallel to the same
+     *                           conode and service path.
+     * @param executor           used to complete the futures, so that the callers' continuations
+     *                           don't run on the thread reading the websocket.
+     * @param requestTimeout     how many milliseconds a request waits for its reply once it is
+     *                           sent. It must leave the conode enough time to create a new block.
+     */
+    public ConnectionManager(int connectionsPerPath, Executor executor, int requestTimeout) {
+        if (connectionsPerPath < 1) {
+            throw new IllegalArgumentException("need at least one connection per path");
+        }
+        if (requestTimeout < 1) {
+            throw new IllegalArgumentException("need a positive request timeout");
+        }
+        this.connectionsPerPath = connectionsPerPath;
+        this.executor = executor;
+        this.requestTimeout = TimeUnit.MILLISECONDS.toNanos(requestTimeout);
+        this.handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(Math.min(connectTimeout, requestTimeout));
+    }
+
+    /**
+     * Returns the ConnectionManager shared by all ServerIdentities.
+     */
+    public static ConnectionManager getDefault() {
+        return defaultManager;
+    }
+
+    /**
+     * Sends a message to the websocket at the given address and returns the reply of the conode.
+     *
+     * @param address websocket address including the service path, e.g. ws://host:port/Lleap/GetValue
+     * @param msg     the serialized protobuf message
+     * @return a future that completes with the reply or with a CothorityCommunicationException.
+     */
+    public CompletableFuture<byte[]> sendMessage(URI address, byte[] msg) {
+        return sendMessage(address, null, msg);
+    }
+
+    /**
+     * Same as sendMessage, with the address of the conode under which the request is recorded in
+     * the Metrics. If node is null, the host and port of the websocket are used.
+     */
+    CompletableFuture<byte[]> sendMessage(URI address, URI node, byte[] msg) {
+        Pool pool = pools.get(address);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(address, a -> new Pool(a, node));
+        }
+        Request request = new Request(msg, pool);
+        pool.pick().submit(request);
+        return request.future;
+    }
+
+    /**
+     * Closes all connections. Requests still waiting for a reply fail with a
+     * CothorityCommunicationException. The manager can still be used afterwards and will open
+     * new connections.
+     */
+    public void close() {
+        for (Pool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Waits for the future and unwraps the CothorityCommunicationException it failed with, so
+     * that the blocking methods keep throwing the same exceptions as before.
+     *
+     * @param future the future returned by one of the asynchronous methods
+     * @return the result of the future
+     * @throws CothorityCommunicationException if the future failed or the thread got interrupted.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws CothorityCommunicationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CothorityCommunicationException(e.toString(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CothorityCommunicationException) {
+                throw (CothorityCommunicationException) cause;
+            }
+            throw new CothorityCommunicationException(cause.toString(), cause);
+        }
+    }
+
+    /**
+     * Returns a future that already failed with the given exception.
+     */
+    public static <T> CompletableFuture<T> failed(Throwable e) {
+        Metrics.error(e);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Wraps a checked exception thrown while processing a reply, so it can be thrown out of a
+     * continuation of the future. {@link #await(CompletableFuture)} unwraps it again.
+     */
+    public static CompletionException wrap(Throwable e) {
+        Metrics.error(e);
+        return new CompletionException(e);
+    }
+
+    private void complete(Request request, byte[] reply) {
+        if (request.sent != 0) {
+            Metrics.request(request.pool.path, request.pool.node, System.nanoTime() - request.sent,
+                    request.msg.length, reply.length, true);
+        }
+        executor.execute(() -> request.future.complete(reply));
+    }
+
+    private void fail(Request request, String error) {
+        fail(request, new CothorityCommunicationException(error));
+    }
+
+    private void fail(Request request, CothorityCommunicationException e) {
+        if (request.sent != 0) {
+            Metrics.request(request.pool.path, request.pool.node, System.nanoTime() - request.sent,
+                    request.msg.length, 0, false);
+        }
+        Metrics.error(request.pool.path, request.pool.node, e);
+        executor.execute(() -> request.future.completeExceptionally(e));
+    }
+
+    /**
+     * Returns the address without the service path.
+     */
+    private static URI authority(URI address) {
+        try {
+            return new URI(address.getScheme(), null, address.getHost(), address.getPort(), null, null, null);
+        } catch (URISyntaxException e) {
+            return address;
+        }
+    }
+
+    private static final class Request {
+        final byte[] msg;
+        final Pool pool;
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        int retries = 0;
+        // when the request was last sent, if metrics are enabled
+        long sent;
+        // until when the reply has to arrive
+        long deadline;
+
+        Request(byte[] msg, Pool pool) {
+            this.msg = msg;
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * All connections to one conode and service path.
+     */
+    private final class Pool {
+        private final URI address;
+        // under which the requests are recorded in the Metrics
+        private final String path;
+        private final URI node;
+        private final List<Connection> connections = new ArrayList<>();
+
+        Pool(URI address, URI node) {
+            this.address = address;
+            this.path = address.getPath() != null && address.getPath().startsWith("/") ?
+                    address.getPath().substring(1) : address.getPath();
+            this.node = node != null ? node : authority(address);
+        }
+
+        /**
+         * Returns the connection with the fewest outstanding requests and opens a new one if
+         * all of them are busy.
+         */
+        synchronized Connection pick() {
+            Connection best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Connection c : connections) {
+                int load = c.outstanding();
+                if (load < bestLoad) {
+                    best = c;
+                    bestLoad = load;
+                }
+            }
+            if (best == null || (bestLoad > 0 && connections.size() < connectionsPerPath)) {
+                best = new Connection(this);
+                connections.add(best);
+            }
+            return best;
+        }
+
+        synchronized void close() {
+            for (Connection c : connections) {
+                c.close();
+            }
+            connections.clear();
+        }
+    }
+
+    /**
+     * One websocket that is reopened whenever there are requests to send and it got closed.
+     */
+    private final class Connection {
+        private final URI address;
+        private final URI node;
+        private WebSocketClient ws;
+        private boolean open;
+        // when the websocket started to connect, if metrics are enabled
+        private long connecting;
+        private String lastError;
+        // whether the deadline of the oldest request in flight is being watched
+        private boolean watching;
+        // requests waiting for the websocket to be opened
+        private final Deque<Request> queued = new ArrayDeque<>();
+        // requests sent to the conode and waiting for a reply, in the order they were sent
+        private final Deque<Request> inFlight = new ArrayDeque<>();
+
+        Connection(Pool pool) {
+            this.address = pool.address;
+            this.node = pool.node;
+        }
+
+        synchronized int outstanding() {
+            return queued.size() + inFlight.size();
+        }
+
+        synchronized void submit(Request request) {
+            if (open) {
+                transmit(request);
+                return;
+            }
+            queued.add(request);
+            if (ws == null) {
+                connect();
+            }
+        }
+
+        void close() {
+            WebSocketClient old;
+            synchronized (this) {
+                old = ws;
+                if (old == null) {
+                    return;
+                }
+                closed(old, "connection manager closed", false);
+            }
+            // Closing takes the lock of the websocket, which is held while it calls us back.
+            old.close();
+        }
+
+        private void transmit(Request request) {
+            request.sent = Metrics.start();
+            request.deadline = System.nanoTime() + requestTimeout;
+            inFlight.add(request);
+            watch(requestTimeout);
+            try {
+                ws.send(request.msg);
+            } catch (RuntimeException e) {
+                // The websocket is going down, onClose will take care of the request.
+                logger.debug("Couldn't send to {}: {}", address, e.toString());
+            }
+        }
+
+        private void connect() {
+            lastError = null;
+            connecting = Metrics.start();
+            ws = new Client(address);
+            // The pings of the library need a timer thread per websocket that keeps the JVM alive.
+            // The request timeout detects dead connections instead.
+            ws.setConnectionLostTimeout(0);
+            // The websocket library starts its threads from the thread calling run, so they
+            // inherit the daemon flag and don't keep the JVM alive.
+            Thread t = new Thread(ws, "conode " + address);
+            t.setDaemon(true);
+            t.start();
+            // The timeout of the socket only covers the TCP connection, not the handshake.
+            WebSocketClient client = ws;
+            timeouts.schedule(() -> handshakeExpired(client), handshakeTimeout, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Fails the queued requests and closes the websocket if it is still not open.
+         */
+        private void handshakeExpired(WebSocketClient client) {
+            String error;
+            synchronized (this) {
+                if (client != ws || open) {
+                    return;
+                }
+                error = "no handshake with " + address + " within " +
+                        TimeUnit.NANOSECONDS.toMillis(handshakeTimeout) + "ms";
+                lastError = error;
+                closed(client, error, false);
+            }
+            // Closing takes the lock of the websocket, which is held while it calls us back.
+            client.closeConnection(CloseFrame.ABNORMAL_CLOSE, error);
+        }
+
+        private void watch(long nanos) {
+            if (!watching) {
+                watching = true;
+                timeouts.schedule(this::expire, nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Fails the requests in flight and closes the websocket if the oldest request is past its
+         * deadline. The requests behind it cannot get their replies before it does.
+         */
+        private void expire() {
+            WebSocketClient old;
+            String error;
+            synchronized (this) {
+                watching = false;
+                Request oldest = inFlight.peek();
+                if (oldest == null) {
+                    return;
+                }
+                long left = oldest.deadline - System.nanoTime();
+                if (left > 0) {
+                    watch(left);
+                    return;
+                }
+                old = ws;
+                error = "no reply from " + address + " within " +
+                        TimeUnit.NANOSECONDS.toMillis(requestTimeout) + "ms";
+                lastError = error;
+                closed(old, error, false);
+            }
+            // Closing takes the lock of the websocket, which is held while it calls us back.
+            old.closeConnection(CloseFrame.ABNORMAL_CLOSE, error);
+        }
+
+        private synchronized void opened(Client client) {
+            if (client != ws) {
+                return;
+            }
+            if (connecting != 0 && client.connected != 0) {
+                long now = System.nanoTime();
+                Metrics.connected(node, client.connected - connecting, now - client.connected);
+            }
+            open = true;
+            while (!queued.isEmpty()) {
+                transmit(queued.poll());
+            }
+        }
+
+        private synchronized void received(WebSocketClient client, byte[] reply, String error) {
+            if (client != ws) {
+                return;
+            }
+            Request request = inFlight.poll();
+            if (request == null) {
+                logger.warn("Got unexpected reply from {}", address);
+                return;
+            }
+            if (error != null) {
+                fail(request, error);
+            } else {
+                complete(request, reply);
+            }
+        }
+
+        private synchronized void errored(WebSocketClient client, Exception ex) {
+            if (client == ws) {
+                lastError = "Error: " + ex.toString();
+            }
+        }
+
+        private synchronized void closed(WebSocketClient client, String reason, boolean remote) {
+            if (client != ws) {
+                return;
+            }
+            boolean wasOpen = open;
+            ws = null;
+            open = false;
+
+            String error = lastError != null ? lastError : reason;
+            if (error == null || error.isEmpty()) {
+                error = "connection to " + address + " closed";
+            }
+            if (remote && reason != null && !reason.isEmpty() && !inFlight.isEmpty()) {
+                // The conode refused the request at the head of the queue and stopped reading,
+                // so the requests behind it have not been processed and can be sent again.
+                fail(inFlight.poll(), new CothorityRefusedException(reason));
+                while (!inFlight.isEmpty()) {
+                    Request request = inFlight.pollLast();
+                    if (request.retries++ < maxRetries) {
+                        queued.addFirst(request);
+                    } else {
+                        fail(request, reason);
+                    }
+                }
+            } else {
+                while (!inFlight.isEmpty()) {
+                    fail(inFlight.poll(), error);
+                }
+                if (!wasOpen) {
+                    // Couldn't connect at all - don't retry forever.
+                    while (!queued.isEmpty()) {
+                        fail(queued.poll(), new CothorityUnreachableException(error));
+                    }
+                }
+            }
+            if (!queued.isEmpty()) {
+                connect();
+            }
+        }
+
+        private final class Client extends WebSocketClient {
+            // when the TCP connection was established, if metrics are enabled
+            private volatile long connected;
+
+            Client(URI address) {
+                super(address, new Draft_6455(), null, connectTimeout);
+                setSocket(new Socket() {
+                    @Override
+                    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                        super.connect(endpoint, timeout);
+                        connected = Metrics.start();
+                    }
+                });
+                // The websocket library writes the header and the payload of a frame separately. With
+                // Nagle's algorithm the payload then waits for the delayed ack of the header. The library
+                // sets TCP_NODELAY of the socket from this flag when it connects.
+                setTcpNoDelay(true);
+            }
+
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+                opened(this);
+            }
+
+            @Override
+            public void onMessage(String msg) {
+                received(this, null, "This should never happen:" + msg);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                byte[] reply = new byte[message.remaining()];
+                message.get(reply);
+                received(this, reply, null);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                closed(this, reason, remote);
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                errored(this, ex);
+            }
+        }
+    }
+}
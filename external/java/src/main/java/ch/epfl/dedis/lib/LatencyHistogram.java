@@ -0,0 +1,126 @@
+package ch.epfl.dedis.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * dedis/lib
+ * LatencyHistogram.java
+ * Purpose: Counts durations in nanoseconds in buckets that grow with the duration, eight per power of two, so that
+ * every percentile is known to within about 6%. Recording a duration only updates a few atomic counters and
+ * allocates nothing, so it can be used on every request.
+ */
+public class LatencyHistogram {
+    // Eight buckets per power of two, up to 2^63.
+    private static final int subBits = 3;
+    private static final int subBuckets = 1 << subBits;
+    private static final int buckets = (64 - subBits) * subBuckets;
+
+    private final AtomicLongArray counts = new AtomicLongArray(buckets);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a duration in nanoseconds. Negative durations count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return how many durations have been recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all durations in nanoseconds.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the longest duration in nanoseconds, or 0 if there is none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, or 0 if there is none.
+     */
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Returns the duration that p of the recorded durations don't exceed, as the middle of its bucket.
+     *
+     * @param p the percentile between 0 and 1, e.g. 0.99
+     * @return the percentile in nanoseconds, or 0 if there are no durations.
+     */
+    public long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < buckets; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(lowest(i) + width(i) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets all recorded durations. Durations recorded at the same time might be lost or counted partly.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < subBuckets) {
+            return (int) nanos;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exp - subBits)) & (subBuckets - 1);
+        return (exp - subBits + 1) * subBuckets + sub;
+    }
+
+    static long lowest(int bucket) {
+        if (bucket < subBuckets) {
+            return bucket;
+        }
+        int exp = bucket / subBuckets + subBits - 1;
+        return (long) (subBuckets + bucket % subBuckets) << (exp - subBits);
+    }
+
+    private static long width(int bucket) {
+        return bucket < subBuckets ? 1 : 1L << (bucket / subBuckets - 1);
+    }
+}
@@ -0,0 +1,46 @@
+package ch.epfl.dedis.lib;
+
+import java.util.Arrays;
+
+/**
+ * LatencyWindow keeps the latencies of the last requests to a service path of a node, so that a Roster knows when a
+ * request is slower than usual and should be hedged.
+ */
+class LatencyWindow {
+    private static final int size = 256;
+    // Need this many samples before the percentile means anything.
+    private static final int minSamples = 20;
+    // The percentile is only recomputed every so many samples.
+    private static final int refresh = 16;
+
+    private final long[] samples = new long[size];
+    private int count;
+    private int sinceRefresh;
+    private double cachedFor = -1;
+    private long cached = -1;
+
+    synchronized void record(long latency) {
+        samples[count % size] = latency;
+        count++;
+        sinceRefresh++;
+    }
+
+    /**
+     * Returns the given percentile of the recorded latencies in nanoseconds, or -1 if there are not enough
+     * samples yet.
+     */
+    synchronized long percentile(double p) {
+        if (count < minSamples) {
+            return -1;
+        }
+        if (cachedFor != p || sinceRefresh >= refresh) {
+            long[] sorted = Arrays.copyOf(samples, Math.min(count, size));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            cached = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+            cachedFor = p;
+            sinceRefresh = 0;
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,371 @@
+package ch.epfl.dedis.lib;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * dedis/lib
+ * Metrics.java
+ * Purpose: Measures what the client does with the conodes: the latency and the bytes of the requests per service
+ * path and per conode, the time to open a websocket apart from the time of the requests, the errors by exception
+ * class and the time to verify key/value blocks.
+ * <p>
+ * Metrics are disabled by default, and then cost a volatile read per measurement. Once enabled, they are
+ * registered in the platform MBeanServer under "ch.epfl.dedis:type=Metrics", and every measurement is passed to
+ * the MetricsListeners. Recording a measurement doesn't allocate, except for the first one of a new path, conode
+ * or exception class.
+ */
+public final class Metrics {
+    private static final String domain = "ch.epfl.dedis:type=Metrics";
+    private static final double millis = 1e6;
+
+    private static volatile boolean enabled;
+    private static volatile MetricsListener[] listeners = new MetricsListener[0];
+    private static boolean registered;
+
+    private static final Map<String, RequestStats> paths = new ConcurrentHashMap<>();
+    private static final Map<URI, RequestStats> nodes = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, LongAdder> errors = new ConcurrentHashMap<>();
+    private static final LatencyHistogram connects = new LatencyHistogram();
+    private static final LatencyHistogram handshakes = new LatencyHistogram();
+    private static final LatencyHistogram verifications = new LatencyHistogram();
+    private static final LongAdder verificationFailures = new LongAdder();
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops recording. The recorded values are kept when recording stops.
+     */
+    public static void setEnabled(boolean enable) {
+        if (enable) {
+            register();
+        }
+        enabled = enable;
+    }
+
+    /**
+     * Adds a listener that gets every measurement while metrics are enabled.
+     */
+    public static synchronized void addListener(MetricsListener listener) {
+        MetricsListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[l.length - 1] = listener;
+        listeners = l;
+    }
+
+    public static synchronized void removeListener(MetricsListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                MetricsListener[] l = new MetricsListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, l, 0, i);
+                System.arraycopy(listeners, i + 1, l, i, l.length - i);
+                listeners = l;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the requests sent to the service path, e.g. "Lleap/GetValue".
+     */
+    public static RequestStats path(String path) {
+        // get first, as computeIfAbsent locks even if the path is there
+        RequestStats stats = paths.get(path);
+        return stats != null ? stats : paths.computeIfAbsent(path, Metrics::newPath);
+    }
+
+    /**
+     * @return the requests sent to the conode at the address, as in its ServerIdentity.
+     */
+    public static RequestStats node(URI address) {
+        RequestStats stats = nodes.get(address);
+        return stats != null ? stats : nodes.computeIfAbsent(address, Metrics::newNode);
+    }
+
+    public static Map<String, RequestStats> getPaths() {
+        return Collections.unmodifiableMap(paths);
+    }
+
+    public static Map<URI, RequestStats> getNodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * @return the durations of the TCP connections to the conodes.
+     */
+    public static LatencyHistogram getConnects() {
+        return connects;
+    }
+
+    /**
+     * @return the durations of the websocket handshakes, after the TCP connection.
+     */
+    public static LatencyHistogram getHandshakes() {
+        return handshakes;
+    }
+
+    /**
+     * @return the durations of the verifications of single key/value blocks, by KeyValueBlock.verifyBlock or
+     * BlockVerifier.verify. Blocks that have been verified before are not counted.
+     */
+    public static LatencyHistogram getVerifications() {
+        return verifications;
+    }
+
+    public static long getVerificationFailures() {
+        return verificationFailures.sum();
+    }
+
+    /**
+     * @return how many errors there were of every exception class, by the simple name of the class.
+     */
+    public static Map<String, Long> getErrors() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<Class<?>, LongAdder> e : errors.entrySet()) {
+            counts.merge(e.getKey().getSimpleName(), e.getValue().sum(), Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Forgets all measurements.
+     */
+    public static void reset() {
+        for (RequestStats stats : paths.values()) {
+            stats.reset();
+        }
+        for (RequestStats stats : nodes.values()) {
+            stats.reset();
+        }
+        for (LongAdder count : errors.values()) {
+            count.reset();
+        }
+        connects.reset();
+        handshakes.reset();
+        verifications.reset();
+        verificationFailures.reset();
+    }
+
+    /**
+     * Marks the start of something to measure, e.g. for verified.
+     *
+     * @return the start time, or 0 if metrics are disabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the verification of a key/value block that started at start.
+     */
+    public static void verified(long start, boolean ok) {
+        if (start == 0 || !enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        verifications.record(nanos);
+        if (!ok) {
+            verificationFailures.increment();
+        }
+        for (MetricsListener l : listeners) {
+            l.onVerify(nanos, ok);
+        }
+    }
+
+    /**
+     * Records an error that is not tied to a request, e.g. a reply that didn't parse.
+     */
+    public static void error(Throwable error) {
+        error(null, null, error);
+    }
+
+    static void request(String path, URI node, long nanos, int sent, int received, boolean ok) {
+        if (!enabled) {
+            return;
+        }
+        path(path).request(nanos, sent, received);
+        node(node).request(nanos, sent, received);
+        for (MetricsListener l : listeners) {
+            l.onRequest(path, node, nanos, sent, received, ok);
+        }
+    }
+
+    static void connected(URI node, long connectNanos, long handshakeNanos) {
+        if (!enabled) {
+            return;
+        }
+        connects.record(connectNanos);
+        handshakes.record(handshakeNanos);
+        for (MetricsListener l : listeners) {
+            l.onConnect(node, connectNanos, handshakeNanos);
+        }
+    }
+
+    static void retried(String path, boolean hedged) {
+        if (!enabled) {
+            return;
+        }
+        path(path).retry(hedged);
+        for (MetricsListener l : listeners) {
+            l.onRetry(path, hedged);
+        }
+    }
+
+    static void error(String path, URI node, Throwable error) {
+        if (!enabled) {
+            return;
+        }
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        LongAdder count = errors.get(error.getClass());
+        if (count == null) {
+            count = errors.computeIfAbsent(error.getClass(), Metrics::newCount);
+        }
+        count.increment();
+        if (path != null) {
+            path(path).error();
+        }
+        if (node != null) {
+            node(node).error();
+        }
+        for (MetricsListener l : listeners) {
+            l.onError(path, error);
+        }
+    }
+
+    private static RequestStats newPath(String path) {
+        RequestStats stats = new RequestStats();
+        register(domain + ",path=" + ObjectName.quote(path), stats);
+        return stats;
+    }
+
+    private static RequestStats newNode(URI node) {
+        RequestStats stats = new RequestStats();
+        register(domain + ",node=" + ObjectName.quote(node.toString()), stats);
+        return stats;
+    }
+
+    private static LongAdder newCount(Class<?> c) {
+        return new LongAdder();
+    }
+
+    /**
+     * Registers the MBeans the first time metrics are enabled.
+     */
+    private static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        register(domain, new MBean());
+        for (Map.Entry<String, RequestStats> p : paths.entrySet()) {
+            register(domain + ",path=" + ObjectName.quote(p.getKey()), p.getValue());
+        }
+        for (Map.Entry<URI, RequestStats> n : nodes.entrySet()) {
+            register(domain + ",node=" + ObjectName.quote(n.getKey().toString()), n.getValue());
+        }
+    }
+
+    private static void register(String name, Object bean) {
+        synchronized (Metrics.class) {
+            if (!registered) {
+                return;
+            }
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(bean, new ObjectName(name));
+        } catch (InstanceAlreadyExistsException e) {
+            logger.debug("{} is already registered", name);
+        } catch (JMException e) {
+            logger.warn("Couldn't register {}: {}", name, e.toString());
+        }
+    }
+
+    private static final class MBean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getConnects() {
+            return connects.getCount();
+        }
+
+        @Override
+        public double getConnectLatency50() {
+            return connects.percentile(0.5) / millis;
+        }
+
+        @Override
+        public double getConnectLatency95() {
+            return connects.percentile(0.95) / millis;
+        }
+
+        @Override
+        public double getHandshakeLatency50() {
+            return handshakes.percentile(0.5) / millis;
+        }
+
+        @Override
+        public double getHandshakeLatency95() {
+            return handshakes.percentile(0.95) / millis;
+        }
+
+        @Override
+        public long getVerifications() {
+            return verifications.getCount();
+        }
+
+        @Override
+        public long getVerificationFailures() {
+            return Metrics.getVerificationFailures();
+        }
+
+        @Override
+        public double getVerifyLatencyMean() {
+            return verifications.getMean() / millis;
+        }
+
+        @Override
+        public double getVerifyLatency99() {
+            return verifications.percentile(0.99) / millis;
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            return Metrics.getErrors();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
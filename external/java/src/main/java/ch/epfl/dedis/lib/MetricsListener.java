@@ -0,0 +1,62 @@
+package ch.epfl.dedis.lib;
+
+import java.net.URI;
+
+/**
+ * dedis/lib
+ * MetricsListener.java
+ * Purpose: Gets every measurement recorded by Metrics, e.g. to forward it to a monitoring system. The methods are
+ * called on the thread that made the measurement, often the thread reading a websocket, so they must return
+ * quickly and should not allocate. All durations are in nanoseconds.
+ */
+public interface MetricsListener {
+    /**
+     * A request got a reply or failed after it was sent on an open websocket.
+     *
+     * @param path          the service path, e.g. "Lleap/GetValue"
+     * @param node          the address of the conode
+     * @param nanos         from sending the request until the reply or the error
+     * @param bytesSent     length of the request
+     * @param bytesReceived length of the reply, 0 if it failed
+     * @param ok            false if the request failed
+     */
+    default void onRequest(String path, URI node, long nanos, int bytesSent, int bytesReceived, boolean ok) {
+    }
+
+    /**
+     * A websocket to a conode has been opened.
+     *
+     * @param node           the address of the conode
+     * @param connectNanos   how long the TCP connection took
+     * @param handshakeNanos how long the websocket handshake took after the TCP connection
+     */
+    default void onConnect(URI node, long connectNanos, long handshakeNanos) {
+    }
+
+    /**
+     * A roster sent a request to another node.
+     *
+     * @param path   the service path
+     * @param hedged true if the first node was slow, false if it failed
+     */
+    default void onRetry(String path, boolean hedged) {
+    }
+
+    /**
+     * An error happened while talking to the conodes or checking their replies.
+     *
+     * @param path  the service path, or null if it is not known
+     * @param error the error, usually a CothorityException
+     */
+    default void onError(String path, Throwable error) {
+    }
+
+    /**
+     * The collective signature of a key/value block has been verified.
+     *
+     * @param nanos how long the verification took
+     * @param ok    false if the block didn't verify
+     */
+    default void onVerify(long nanos, boolean ok) {
+    }
+}
@@ -0,0 +1,40 @@
+package ch.epfl.dedis.lib;
+
+import java.util.Map;
+
+/**
+ * dedis/lib
+ * MetricsMXBean.java
+ * Purpose: The view of Metrics in JMX. Latencies are in milliseconds. The requests of every service path and
+ * every conode are RequestStatsMXBeans of their own.
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getConnects();
+
+    double getConnectLatency50();
+
+    double getConnectLatency95();
+
+    double getHandshakeLatency50();
+
+    double getHandshakeLatency95();
+
+    long getVerifications();
+
+    long getVerificationFailures();
+
+    double getVerifyLatencyMean();
+
+    double getVerifyLatency99();
+
+    /**
+     * @return how many errors there were of every exception class.
+     */
+    Map<String, Long> getErrors();
+
+    void reset();
+}
@@ -0,0 +1,97 @@
+package ch.epfl.dedis.lib;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * dedis/lib
+ * NodeStats.java
+ * Purpose: Keeps track of how busy and how fast a conode is, so that a Roster can send its requests to the
+ * best node. The statistics are kept per address, so they survive the ServerIdentity objects that are created
+ * anew every time a roster is parsed.
+ */
+public class NodeStats {
+    private static final Map<URI, NodeStats> stats = new ConcurrentHashMap<>();
+
+    // Weight of a new sample in the exponentially weighted moving average of the latency.
+    private static final double alpha = 0.2;
+    // A request that failed to reach the node or to get its reply counts as a request that took this long, so
+    // the node is avoided for a while.
+    private static final long failurePenalty = 1000000000L;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // of the successful requests per service path, for hedging
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private double latency;
+    private boolean measured;
+
+    /**
+     * Returns the statistics of the conode at the given address.
+     */
+    public static NodeStats of(URI address) {
+        return stats.computeIfAbsent(address, a -> new NodeStats());
+    }
+
+    /**
+     * @return the number of requests that have been sent to this node and didn't return yet.
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the moving average of the latency of this node in nanoseconds, or 0 if there is no
+     * measurement yet.
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return true if at least one request to this node has been measured.
+     */
+    public synchronized boolean isMeasured() {
+        return measured;
+    }
+
+    /**
+     * Returns the recent latencies of the successful requests to the given service path of this node.
+     */
+    LatencyWindow latencies(String path) {
+        return latencies.computeIfAbsent(path, p -> new LatencyWindow());
+    }
+
+    /**
+     * Marks the start of a request.
+     *
+     * @return the start time to be passed to done.
+     */
+    long start() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a request started with start.
+     *
+     * @param ok false if the request failed because of the connection to the node, not if the node refused it.
+     * @return the latency of the request in nanoseconds.
+     */
+    long done(long start, boolean ok) {
+        outstanding.decrementAndGet();
+        long elapsed = System.nanoTime() - start;
+        record(ok ? elapsed : Math.max(elapsed, failurePenalty));
+        return elapsed;
+    }
+
+    private synchronized void record(long sample) {
+        if (!measured) {
+            latency = sample;
+            measured = true;
+        } else {
+            latency += alpha * (sample - latency);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ch.epfl.dedis.lib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * dedis/lib
+ * RequestStats.java
+ * Purpose: The requests sent to one service path or to one conode, as recorded by Metrics: how many there were,
+ * how long they took once they were on the wire, how many bytes they moved and how many of them failed.
+ */
+public class RequestStats implements RequestStatsMXBean {
+    private static final double millis = 1e6;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    /**
+     * @return the latencies of the requests, from the moment they were sent on an open websocket until the reply
+     * or the error arrived.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return how many requests a roster sent to another node after a node failed.
+     */
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return how many requests a roster sent to a second node because the first one was slow.
+     */
+    @Override
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return latency.getMean() / millis;
+    }
+
+    @Override
+    public double getLatency50() {
+        return latency.percentile(0.5) / millis;
+    }
+
+    @Override
+    public double getLatency95() {
+        return latency.percentile(0.95) / millis;
+    }
+
+    @Override
+    public double getLatency99() {
+        return latency.percentile(0.99) / millis;
+    }
+
+    @Override
+    public double getLatencyMax() {
+        return latency.getMax() / millis;
+    }
+
+    void request(long nanos, int sent, int received) {
+        latency.record(nanos);
+        bytesSent.add(sent);
+        bytesReceived.add(received);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void retry(boolean hedged) {
+        if (hedged) {
+            hedges.increment();
+        } else {
+            retries.increment();
+        }
+    }
+
+    void reset() {
+        latency.reset();
+        errors.reset();
+        retries.reset();
+        hedges.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+    }
+}
@@ -0,0 +1,30 @@
+package ch.epfl.dedis.lib;
+
+/**
+ * dedis/lib
+ * RequestStatsMXBean.java
+ * Purpose: The view of RequestStats in JMX. Latencies are in milliseconds.
+ */
+public interface RequestStatsMXBean {
+    long getRequests();
+
+    long getErrors();
+
+    long getRetries();
+
+    long getHedges();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    double getLatencyMean();
+
+    double getLatency50();
+
+    double getLatency95();
+
+    double getLatency99();
+
+    double getLatencyMax();
+}
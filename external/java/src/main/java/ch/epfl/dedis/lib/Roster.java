@@ -3,14 +3,27 @@ package ch.epfl.dedis.lib;
 import ch.epfl.dedis.lib.crypto.Ed25519;
 import ch.epfl.dedis.lib.crypto.Point;
 import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityRefusedException;
+import ch.epfl.dedis.lib.exception.CothorityUnreachableException;
 import ch.epfl.dedis.proto.RosterProto;
 import ch.epfl.dedis.proto.ServerIdentityProto;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.moandjiezana.toml.Toml;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * dedis/lib
@@ -20,8 +33,21 @@ import java.util.List;
  */
 
 public class Roster {
+    // Requests that can be sent to more than one node without changing the outcome.
+    private static final Set<String> idempotentPaths = new HashSet<>(Arrays.asList(
+            "Lleap/GetValue", "Skipchain/GetSingleBlock", "Status/Request"));
+    private static final ScheduledExecutorService hedger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "roster hedger");
+        t.setDaemon(true);
+        return t;
+    });
+
     private List<ServerIdentity> nodes = new ArrayList<>();
     private Point aggregate; // TODO: can we find better name for it? like aggregatePublicKey or aggregatedKey?
+    private volatile RoutingStrategy routing = new RoutingStrategy.LatencyAware();
+    private volatile int maxAttempts = 3;
+    private volatile double hedgePercentile = 0.95;
+    private final Logger logger = LoggerFactory.getLogger(Roster.class);
 
     public Roster(List<ServerIdentity> servers) {
         nodes.addAll(servers);
@@ -63,8 +89,126 @@ public class Roster {
     }
 
     public ByteString sendMessage(String path, com.google.protobuf.GeneratedMessageV3 proto) throws CothorityCommunicationException {
-        // TODO - fetch a random node.
-        return ByteString.copyFrom(nodes.get(0).SendMessage(path, proto.toByteArray()));
+        return ConnectionManager.await(sendMessageAsync(path, proto));
+    }
+
+    /**
+     * Asynchronous version of sendMessage. The node is chosen by the routing strategy of the roster. If a node
+     * can't be reached, the request is sent to the next node. Idempotent requests are also sent to the next node
+     * if the connection fails otherwise, but not if the node refuses them, and they are hedged: if the node takes
+     * longer than the hedge percentile of its own latencies on this path, the request is sent to a second node and
+     * the first answer wins.
+     *
+     * @return a future that completes with the reply or with a CothorityCommunicationException, which is a
+     * CothorityRefusedException if a node refused the request.
+     */
+    public CompletableFuture<ByteString> sendMessageAsync(String path, com.google.protobuf.GeneratedMessageV3 proto) {
+        if (nodes.isEmpty()) {
+            return ConnectionManager.failed(new CothorityCommunicationException("empty roster"));
+        }
+        return new Attempt(path, proto.toByteArray(), idempotentPaths.contains(path)).result;
+    }
+
+    /**
+     * Sets how the roster chooses the node for a request. The default is RoutingStrategy.LatencyAware.
+     */
+    public void setRoutingStrategy(RoutingStrategy routing) {
+        this.routing = routing;
+    }
+
+    /**
+     * Sets how many nodes a request is sent to at most, including the hedged requests.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the percentile of the latencies of a node on a path after which an idempotent request is sent to a
+     * second node. A value of 0 disables hedging.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * One request to the roster, which may be sent to several nodes in turn.
+     */
+    private final class Attempt {
+        final CompletableFuture<ByteString> result = new CompletableFuture<>();
+        private final String path;
+        private final byte[] msg;
+        private final boolean idempotent;
+        private final List<ServerIdentity> ordered;
+        private int next;
+        private int running;
+
+        Attempt(String path, byte[] msg, boolean idempotent) {
+            this.path = path;
+            this.msg = msg;
+            this.idempotent = idempotent;
+            this.ordered = routing.order(nodes);
+            synchronized (this) {
+                launch();
+            }
+            if (idempotent && hedgePercentile > 0) {
+                long after = ordered.get(0).getStats().latencies(path).percentile(hedgePercentile);
+                if (after > 0) {
+                    hedger.schedule(this::hedge, after, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private synchronized void hedge() {
+            if (!result.isDone() && launch()) {
+                logger.debug("Hedging {} to a second node", path);
+                Metrics.retried(path, true);
+            }
+        }
+
+        /**
+         * Sends the request to the next node, if there is one left.
+         */
+        private boolean launch() {
+            if (next >= Math.min(ordered.size(), maxAttempts)) {
+                return false;
+            }
+            ServerIdentity node = ordered.get(next++);
+            running++;
+            long start = System.nanoTime();
+            node.sendMessageAsync(path, msg).whenComplete((reply, e) -> done(node, start, reply, e));
+            return true;
+        }
+
+        private synchronized void done(ServerIdentity node, long start, byte[] reply, Throwable e) {
+            running--;
+            if (e == null) {
+                node.getStats().latencies(path).record(System.nanoTime() - start);
+                // The reply is a fresh array of the ConnectionManager that nobody else holds.
+                result.complete(UnsafeByteOperations.unsafeWrap(reply));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof CothorityRefusedException) {
+                // The other nodes would refuse it just the same.
+                result.completeExceptionally(cause);
+                return;
+            }
+            // A request that has not been sent can go to another node, others only if they are idempotent.
+            if (idempotent || cause instanceof CothorityUnreachableException) {
+                logger.warn("Failing node {}: {}", node.getAddress(), cause.getMessage());
+                if (launch()) {
+                    Metrics.retried(path, false);
+                    return;
+                }
+            }
+            if (running == 0) {
+                result.completeExceptionally(cause);
+            }
+        }
     }
 
     public static Roster FromToml(String groupToml) {
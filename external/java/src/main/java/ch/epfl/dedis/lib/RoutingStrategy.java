@@ -0,0 +1,87 @@
+package ch.epfl.dedis.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * dedis/lib
+ * RoutingStrategy.java
+ * Purpose: Decides which node of a Roster gets a request. The Roster sends the request to the first node
+ * returned by order, and fails over to the next nodes if it doesn't get an answer.
+ */
+public interface RoutingStrategy {
+    /**
+     * Returns the nodes in the order they should be tried for the next request.
+     *
+     * @param nodes the nodes of the roster, must not be changed.
+     * @return a new list with the same nodes, best node first.
+     */
+    List<ServerIdentity> order(List<ServerIdentity> nodes);
+
+    /**
+     * Sends the requests to the nodes in turn.
+     */
+    class RoundRobin implements RoutingStrategy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public List<ServerIdentity> order(List<ServerIdentity> nodes) {
+            List<ServerIdentity> ordered = new ArrayList<>(nodes);
+            if (!ordered.isEmpty()) {
+                Collections.rotate(ordered, -Math.floorMod(next.getAndIncrement(), ordered.size()));
+            }
+            return ordered;
+        }
+
+        /**
+         * Stable sort of the nodes by a score that is read once per node, as the statistics change while
+         * sorting.
+         */
+        static List<ServerIdentity> sortBy(List<ServerIdentity> nodes, ToDoubleFunction<ServerIdentity> score) {
+            double[] scores = new double[nodes.size()];
+            Integer[] indexes = new Integer[nodes.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = score.applyAsDouble(nodes.get(i));
+                indexes[i] = i;
+            }
+            Arrays.sort(indexes, Comparator.comparingDouble(i -> scores[i]));
+            List<ServerIdentity> sorted = new ArrayList<>(nodes.size());
+            for (int i : indexes) {
+                sorted.add(nodes.get(i));
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Sends the requests to the node with the fewest outstanding requests. Nodes with the same number of
+     * outstanding requests are used in turn.
+     */
+    class LeastOutstanding extends RoundRobin {
+        @Override
+        public List<ServerIdentity> order(List<ServerIdentity> nodes) {
+            return sortBy(super.order(nodes), si -> si.getStats().getOutstanding());
+        }
+    }
+
+    /**
+     * Sends the requests to the node with the lowest moving average of its latency, weighted by its
+     * outstanding requests. Nodes that have not been measured yet are tried first.
+     */
+    class LatencyAware extends RoundRobin {
+        @Override
+        public List<ServerIdentity> order(List<ServerIdentity> nodes) {
+            return sortBy(super.order(nodes), LatencyAware::score);
+        }
+
+        private static double score(ServerIdentity si) {
+            NodeStats stats = si.getStats();
+            return stats.getLatency() * (stats.getOutstanding() + 1);
+        }
+    }
+}
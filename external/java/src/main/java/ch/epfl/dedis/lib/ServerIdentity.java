@@ -3,20 +3,19 @@ package ch.epfl.dedis.lib;
 import ch.epfl.dedis.lib.crypto.Hex;
 import ch.epfl.dedis.lib.crypto.Point;
 import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityRefusedException;
 import ch.epfl.dedis.proto.ServerIdentityProto;
 import ch.epfl.dedis.proto.StatusProto;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.moandjiezana.toml.Toml;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * dedis/lib
@@ -49,14 +48,24 @@ public class ServerIdentity {
     }
 
     public StatusProto.Response GetStatus() throws CothorityCommunicationException {
+        return ConnectionManager.await(getStatusAsync());
+    }
+
+    /**
+     * Asynchronous version of GetStatus.
+     *
+     * @return a future that completes with the status of the conode.
+     */
+    public CompletableFuture<StatusProto.Response> getStatusAsync() {
         StatusProto.Request request =
                 StatusProto.Request.newBuilder().build();
-        try {
-            SyncSendMessage msg = new SyncSendMessage("Status/Request", request.toByteArray());
-            return StatusProto.Response.parseFrom(msg.response);
-        } catch (InvalidProtocolBufferException e) {
-            throw new CothorityCommunicationException(e.toString());
-        }
+        return sendMessageAsync("Status/Request", request.toByteArray()).thenApply(reply -> {
+            try {
+                return StatusProto.Response.parseFrom(reply);
+            } catch (InvalidProtocolBufferException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e.toString()));
+            }
+        });
     }
 
     public ServerIdentityProto.ServerIdentity getProto() {
@@ -72,7 +81,48 @@ public class ServerIdentity {
     }
 
     public byte[] SendMessage(String path, byte[] data) throws CothorityCommunicationException {
-        return new SyncSendMessage(path, data).response.array();
+        return ConnectionManager.await(sendMessageAsync(path, data));
+    }
+
+    /**
+     * Sends a message to the service at path over one of the websockets kept open by the
+     * default ConnectionManager. The request is recorded in the Metrics of path and of the
+     * address of this node.
+     *
+     * @param path the service path, e.g. "Lleap/GetValue"
+     * @param data the serialized protobuf message
+     * @return a future that completes with the reply or with a CothorityCommunicationException.
+     */
+    public CompletableFuture<byte[]> sendMessageAsync(String path, byte[] data) {
+        URI address;
+        try {
+            address = buildWebSocketAdddress(path);
+        } catch (URISyntaxException e) {
+            return ConnectionManager.failed(new CothorityCommunicationException(e.toString()));
+        }
+        NodeStats stats = getStats();
+        long start = stats.start();
+        // A refusal is an answer of the conode, only transport errors count against it.
+        return ConnectionManager.getDefault().sendMessage(address, conodeAddress, data).whenComplete((reply, e) ->
+                stats.done(start, e == null || e instanceof CothorityRefusedException));
+    }
+
+    /**
+     * @return the latency and load statistics of this node, shared by all ServerIdentities with the same
+     * address.
+     */
+    public NodeStats getStats() {
+        return NodeStats.of(conodeAddress);
+    }
+
+    URI buildWebSocketAdddress(final String servicePath) throws URISyntaxException {
+        return new URI("ws",
+                conodeAddress.getUserInfo(),
+                conodeAddress.getHost(),
+                conodeAddress.getPort() + 1, // client operation use higher port number
+                servicePath.startsWith("/") ? servicePath : "/".concat(servicePath),
+                conodeAddress.getQuery(),
+                conodeAddress.getFragment());
     }
 
     public class SyncSendMessage {
@@ -80,62 +130,7 @@ public class ServerIdentity {
         public String error;
 
         public SyncSendMessage(String path, final byte[] msg) throws CothorityCommunicationException {
-            final CountDownLatch statusLatch = new CountDownLatch(1);
-            try {
-                WebSocketClient ws = new WebSocketClient(buildWebSocketAdddress(path)) {
-                    @Override
-                    public void onMessage(String msg) {
-                        error = "This should never happen:" + msg;
-                        statusLatch.countDown();
-                    }
-
-                    @Override
-                    public void onMessage(ByteBuffer message) {
-                        response = message;
-                        close();
-                        statusLatch.countDown();
-                    }
-
-                    @Override
-                    public void onOpen(ServerHandshake handshake) {
-                        this.send(msg);
-                    }
-
-                    @Override
-                    public void onClose(int code, String reason, boolean remote) {
-                        if (reason != "") {
-                            error = reason;
-                        }
-                        statusLatch.countDown();
-                    }
-
-                    @Override
-                    public void onError(Exception ex) {
-                        error = "Error: " + ex.toString();
-                        statusLatch.countDown();
-                    }
-                };
-
-                // open websocket and send message.
-                ws.connect();
-                // wait for error or message returned.
-                statusLatch.await();
-            } catch (InterruptedException |  URISyntaxException e) {
-                throw new CothorityCommunicationException(e.toString());
-            }
-            if (error != null) {
-                throw new CothorityCommunicationException(error);
-            }
-        }
-
-        private URI buildWebSocketAdddress(final String servicePath) throws URISyntaxException {
-            return new URI("ws",
-                    conodeAddress.getUserInfo(),
-                    conodeAddress.getHost(),
-                    conodeAddress.getPort() + 1, // client operation use higher port number
-                    servicePath.startsWith("/") ? servicePath : "/".concat(servicePath),
-                    conodeAddress.getQuery(),
-                    conodeAddress.getFragment());
+            response = ByteBuffer.wrap(SendMessage(path, msg));
         }
     }
 }
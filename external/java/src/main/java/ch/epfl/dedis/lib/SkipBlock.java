@@ -2,11 +2,16 @@ package ch.epfl.dedis.lib;
 
 import ch.epfl.dedis.lib.exception.CothorityCryptoException;
 import ch.epfl.dedis.lib.exception.CothorityException;
+import ch.epfl.dedis.proto.ServerIdentityProto;
 import ch.epfl.dedis.proto.SkipBlockProto;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -63,6 +68,70 @@ public class SkipBlock {
         return skipBlock.getIndex() / 2;
     }
 
+    public int getHeight() {
+        return skipBlock.getHeight() / 2;
+    }
+
+    public int getMaxHeight() {
+        return skipBlock.getMaxHeight() / 2;
+    }
+
+    public int getBaseHeight() {
+        return skipBlock.getBaseHeight() / 2;
+    }
+
+    /**
+     * Returns the ids of the previous blocks. The back link at level k points to the block base^k blocks
+     * before this one.
+     */
+    public List<SkipblockId> getBackLinks() throws CothorityCryptoException {
+        List<SkipblockId> result = new ArrayList<>();
+        for (ByteString bl : skipBlock.getBacklinksList()) {
+            result.add(new SkipblockId(bl.toByteArray()));
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the hash of the fixed fields of the block the same way the conodes do: the back links, the
+     * verifiers, the parent, the genesis, the data and the public keys of the roster. The conodes fail to write
+     * the index and the heights into the hash, so they are not covered by it. The forward links are not part of
+     * the hash either, as they are added later.
+     *
+     * @return the hash, which is the id of the block if the block is valid.
+     * @throws CothorityCryptoException if SHA-256 is not available.
+     */
+    public byte[] calculateHash() throws CothorityCryptoException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CothorityCryptoException(e.getMessage());
+        }
+        for (ByteString bl : skipBlock.getBacklinksList()) {
+            digest.update(bl.asReadOnlyByteBuffer());
+        }
+        for (ByteString v : skipBlock.getVerifiersList()) {
+            digest.update(v.asReadOnlyByteBuffer());
+        }
+        digest.update(skipBlock.getParent().asReadOnlyByteBuffer());
+        digest.update(skipBlock.getGenesis().asReadOnlyByteBuffer());
+        digest.update(skipBlock.getData().asReadOnlyByteBuffer());
+        if (skipBlock.hasRoster()) {
+            for (ServerIdentityProto.ServerIdentity si : skipBlock.getRoster().getListList()) {
+                digest.update(si.getPublic().asReadOnlyByteBuffer());
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Checks that the hash stored in the block is the hash of its fields.
+     */
+    public boolean verifyHash() throws CothorityCryptoException {
+        return Arrays.equals(calculateHash(), getHash());
+    }
+
     public List<ForwardLink> getForwardLinks(){
         List<ForwardLink> result = new ArrayList<>();
         for (SkipBlockProto.ForwardLink fl: skipBlock.getForwardList()){
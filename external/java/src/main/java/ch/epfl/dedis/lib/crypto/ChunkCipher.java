@@ -0,0 +1,145 @@
+package ch.epfl.dedis.lib.crypto;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * ChunkCipher encrypts the chunks of a stream with AES-GCM, every chunk with its own tag, so that the chunks can be
+ * encrypted and decrypted independently of each other. The stream starts with a header holding the version, the
+ * length of the chunks and a random salt. Every stream is encrypted with its own key, derived from the key and the
+ * salt with HKDF-SHA256, so that the nonces of different streams never meet under the same key. The nonce of a chunk
+ * is the index of the chunk and a flag for the last chunk, so that chunks can neither be reordered nor dropped from
+ * the end. The header is authenticated with every chunk.
+ * <p>
+ * A ChunkCipher is thread-safe, every thread uses its own Cipher instance.
+ */
+final class ChunkCipher {
+    static final byte version = 2;
+    static final int saltLength = 32;
+    static final int headerLength = 1 + 4 + saltLength;
+    static final int tagLength = 16;
+    // so that a corrupted header cannot make the reader allocate huge buffers
+    static final int maxChunkLength = 16 * 1024 * 1024;
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    });
+    private static final byte[] info = "dedis chunk cipher".getBytes(StandardCharsets.UTF_8);
+
+    final int chunkLength;
+    private final SecretKeySpec key;
+    private final byte[] header;
+
+    private ChunkCipher(SecretKeySpec key, byte[] header) throws CothorityCryptoException {
+        ByteBuffer h = ByteBuffer.wrap(header);
+        if (h.get() != version) {
+            throw new CothorityCryptoException("unknown version of encrypted stream");
+        }
+        chunkLength = h.getInt();
+        if (chunkLength <= 0 || chunkLength > maxChunkLength) {
+            throw new CothorityCryptoException("invalid chunk length " + chunkLength);
+        }
+        byte[] salt = new byte[saltLength];
+        h.get(salt);
+        this.key = deriveKey(key, salt);
+        this.header = header;
+    }
+
+    /**
+     * Creates a ChunkCipher for a new stream, with a random salt.
+     */
+    static ChunkCipher create(SecretKeySpec key, int chunkLength) throws CothorityCryptoException {
+        byte[] salt = new byte[saltLength];
+        Encryption.random().nextBytes(salt);
+        ByteBuffer header = ByteBuffer.allocate(headerLength).put(version).putInt(chunkLength).put(salt);
+        return new ChunkCipher(key, header.array());
+    }
+
+    /**
+     * Derives the key of a stream with HKDF-SHA256 (RFC 5869), the output has the length of the key.
+     */
+    private static SecretKeySpec deriveKey(SecretKeySpec key, byte[] salt) throws CothorityCryptoException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] prk = mac.doFinal(key.getEncoded());
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(info);
+            mac.update((byte) 1);
+            byte[] okm = mac.doFinal();
+            return new SecretKeySpec(okm, 0, key.getEncoded().length, key.getAlgorithm());
+        } catch (GeneralSecurityException e) {
+            throw new CothorityCryptoException(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the ChunkCipher of an existing stream from its header.
+     */
+    static ChunkCipher fromHeader(SecretKeySpec key, byte[] header) throws CothorityCryptoException {
+        if (header.length != headerLength) {
+            throw new CothorityCryptoException("encrypted stream is too short");
+        }
+        return new ChunkCipher(key, header.clone());
+    }
+
+    byte[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * Returns the length of the encrypted stream, including the header, of a plaintext of the given length.
+     */
+    long encryptedLength(long plainLength) {
+        long chunks = Math.max(1, (plainLength + chunkLength - 1) / chunkLength);
+        return headerLength + plainLength + chunks * tagLength;
+    }
+
+    /**
+     * Encrypts the remaining bytes of plain, at most chunkLength, as chunk index into out.
+     */
+    void seal(int index, boolean last, ByteBuffer plain, ByteBuffer out) throws CothorityCryptoException {
+        run(Cipher.ENCRYPT_MODE, index, last, plain, out);
+    }
+
+    /**
+     * Decrypts the remaining bytes of enc as chunk index into out.
+     *
+     * @throws CothorityCryptoException if the chunk is not authentic.
+     */
+    void open(int index, boolean last, ByteBuffer enc, ByteBuffer out) throws CothorityCryptoException {
+        run(Cipher.DECRYPT_MODE, index, last, enc, out);
+    }
+
+    private void run(int mode, int index, boolean last, ByteBuffer in, ByteBuffer out)
+            throws CothorityCryptoException {
+        if (index < 0) {
+            throw new CothorityCryptoException("too many chunks");
+        }
+        // The key is only used for this stream, so the nonce doesn't need a random part.
+        byte[] nonce = new byte[12];
+        nonce[7] = (byte) (index >>> 24);
+        nonce[8] = (byte) (index >>> 16);
+        nonce[9] = (byte) (index >>> 8);
+        nonce[10] = (byte) index;
+        nonce[11] = (byte) (last ? 1 : 0);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(mode, key, new GCMParameterSpec(tagLength * 8, nonce));
+            cipher.updateAAD(header);
+            cipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
+            throw new CothorityCryptoException("chunk " + index + ": " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ch.epfl.dedis.lib.crypto;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * DecryptingInputStream returns the plaintext of the chunks of a ChunkCipher, whose header has already been read.
+ * It reads ahead up to one chunk per core, decrypts them in parallel on the common fork-join pool and returns them
+ * in order. A chunk is only returned once it is authenticated.
+ */
+final class DecryptingInputStream extends InputStream {
+    private final PushbackInputStream in;
+    private final ChunkCipher cipher;
+    private final int window = Runtime.getRuntime().availableProcessors();
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    // buffers of chunks that have been read, to be used again
+    private final Deque<Chunk> free = new ArrayDeque<>();
+    private Chunk chunk;
+    private int index;
+    private boolean end;
+    private boolean closed;
+
+    DecryptingInputStream(InputStream in, ChunkCipher cipher) {
+        this.in = new PushbackInputStream(in, 1);
+        this.cipher = cipher;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (chunk == null || !chunk.plain.hasRemaining()) {
+            if (chunk != null) {
+                chunk.plain.clear();
+                chunk.enc.clear();
+                free.add(chunk);
+                chunk = null;
+            }
+            while (!end && pending.size() < window) {
+                readChunk();
+            }
+            if (pending.isEmpty()) {
+                return -1;
+            }
+            chunk = pending.poll();
+            try {
+                chunk.opened.join();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            chunk.plain.flip();
+        }
+        int n = Math.min(len, chunk.plain.remaining());
+        chunk.plain.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk == null ? 0 : chunk.plain.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+
+    /**
+     * Reads the next chunk and starts to decrypt it. A chunk is the last one if it is shorter than a full chunk
+     * or if nothing follows it.
+     */
+    private void readChunk() throws IOException {
+        Chunk c = free.poll();
+        if (c == null) {
+            c = new Chunk(cipher.chunkLength);
+        }
+        byte[] buf = c.enc.array();
+        int read = 0;
+        while (read < buf.length) {
+            int n = in.read(buf, read, buf.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        boolean last = read < buf.length;
+        if (!last) {
+            int next = in.read();
+            if (next < 0) {
+                last = true;
+            } else {
+                in.unread(next);
+            }
+        }
+        if (read < ChunkCipher.tagLength) {
+            throw new IOException("encrypted stream is truncated",
+                    new CothorityCryptoException("encrypted stream is truncated"));
+        }
+        c.enc.limit(read);
+        Chunk opening = c;
+        int i = index++;
+        boolean isLast = last;
+        c.opened = CompletableFuture.runAsync(() -> {
+            try {
+                cipher.open(i, isLast, opening.enc, opening.plain);
+            } catch (CothorityCryptoException e) {
+                throw new CompletionException(e);
+            }
+        }, ForkJoinPool.commonPool());
+        pending.add(c);
+        end = last;
+    }
+
+    private static final class Chunk {
+        final ByteBuffer plain;
+        final ByteBuffer enc;
+        CompletableFuture<Void> opened;
+
+        Chunk(int length) {
+            plain = ByteBuffer.allocate(length);
+            enc = ByteBuffer.allocate(length + ChunkCipher.tagLength);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ch.epfl.dedis.lib.crypto;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * EncryptingOutputStream writes the header of a ChunkCipher and then the encrypted chunks of everything written to
+ * it. Full chunks are encrypted in parallel on the common fork-join pool, up to one chunk per core, and written in
+ * order, so at most a few chunks of the plaintext are held in memory.
+ * <p>
+ * The last chunk is only written by close, so the stream must be closed for the data to be complete.
+ */
+final class EncryptingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final ChunkCipher cipher;
+    private final int window = Runtime.getRuntime().availableProcessors();
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    // buffers of chunks that have been written, to be used again
+    private final Deque<Chunk> free = new ArrayDeque<>();
+    private Chunk chunk;
+    private int index;
+    private boolean closed;
+
+    EncryptingOutputStream(OutputStream out, ChunkCipher cipher) throws IOException {
+        this.out = out;
+        this.cipher = cipher;
+        out.write(cipher.getHeader());
+        chunk = newChunk();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        while (len > 0) {
+            // A full chunk is only sent once more data follows, as the last chunk is marked.
+            if (!chunk.plain.hasRemaining()) {
+                submit(false);
+            }
+            int n = Math.min(len, chunk.plain.remaining());
+            chunk.plain.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the chunks that are encrypted already. The current chunk is not written, as that would change the
+     * chunk boundaries.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().sealed.isDone()) {
+            writeHead();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeHead();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        Chunk full = chunk;
+        int i = index++;
+        full.plain.flip();
+        full.sealed = CompletableFuture.runAsync(() -> {
+            try {
+                cipher.seal(i, last, full.plain, full.enc);
+            } catch (CothorityCryptoException e) {
+                throw new CompletionException(e);
+            }
+        }, ForkJoinPool.commonPool());
+        pending.add(full);
+        while (pending.size() > window) {
+            writeHead();
+        }
+        chunk = last ? null : newChunk();
+    }
+
+    private void writeHead() throws IOException {
+        Chunk head = pending.poll();
+        try {
+            head.sealed.join();
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        out.write(head.enc.array(), 0, head.enc.position());
+        head.plain.clear();
+        head.enc.clear();
+        free.add(head);
+    }
+
+    private Chunk newChunk() {
+        Chunk c = free.poll();
+        return c != null ? c : new Chunk(cipher.chunkLength);
+    }
+
+    private static final class Chunk {
+        final ByteBuffer plain;
+        final ByteBuffer enc;
+        CompletableFuture<Void> sealed;
+
+        Chunk(int length) {
+            plain = ByteBuffer.allocate(length);
+            enc = ByteBuffer.allocate(length + ChunkCipher.tagLength);
+        }
+    }
+}
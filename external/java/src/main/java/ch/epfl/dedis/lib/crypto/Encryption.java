@@ -3,21 +3,44 @@ package ch.epfl.dedis.lib.crypto;
 import ch.epfl.dedis.lib.exception.CothorityCryptoException;
 import com.google.protobuf.ByteString;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.stream.IntStream;
 
+/**
+ * Encryption holds the symmetric encryption of the data stored on the skipchain.
+ * <p>
+ * encryptData and decryptData encrypt small values in one go with AES-CBC. Large data should use the streams or
+ * buffers of encryptStream and encryptBuffer, which split the data in chunks that are encrypted with AES-GCM and
+ * authenticated on their own. The chunks are encrypted and decrypted in parallel, and a corrupted, truncated or
+ * reordered stream fails to decrypt. Streams and buffers use the same format, so data encrypted with one can be
+ * decrypted with the other.
+ */
 public class Encryption {
     public static String algo = "AES/CBC/PKCS5Padding";
     public static String algoKey = "AES";
     public static int ivLength = 16;
+    /**
+     * Length of the plaintext of a chunk of the streams and buffers.
+     */
+    public static int chunkLength = 64 * 1024;
+
+    // Getting a Cipher or a SecureRandom is slow, so every thread keeps its own.
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(algo);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    });
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
 
     public static class keyIv{
         public byte[] symmetricKey;
@@ -33,15 +56,16 @@ public class Encryption {
             iv = new byte[ivLength];
             System.arraycopy(keyMaterial, 0, iv, 0, ivLength);
             ivSpec = new IvParameterSpec(iv);
-            symmetricKey = new byte[keyMaterial.length - ivLength];
+            symmetricKey = new byte[symmetricLength];
+            System.arraycopy(keyMaterial, ivLength, symmetricKey, 0, symmetricLength);
             keySpec = new SecretKeySpec(symmetricKey, algoKey);
         }
 
         public keyIv(int keylength){
             symmetricKey = new byte[keylength];
             iv = new byte[ivLength];
-            new SecureRandom().nextBytes(symmetricKey);
-            new SecureRandom().nextBytes(iv);
+            random().nextBytes(symmetricKey);
+            random().nextBytes(iv);
             ivSpec = new IvParameterSpec(iv);
             keySpec = new SecretKeySpec(symmetricKey, algoKey);
         }
@@ -61,27 +85,13 @@ public class Encryption {
      *                    The first ivLength bytes are taken as iv, the
      *                    rest is taken as the symmetric symmetricKey.
      * @return a combined
-     * @throws Exception
+     * @throws CothorityCryptoException if the key material is invalid.
      */
     public static byte[] encryptData(byte[] data, byte[] keyMaterial) throws CothorityCryptoException {
         keyIv key = new keyIv(keyMaterial);
-
         try {
-            Cipher cipher = Cipher.getInstance(Encryption.algo);
-            SecretKeySpec secKey = new SecretKeySpec(key.symmetricKey, Encryption.algoKey);
-            cipher.init(Cipher.ENCRYPT_MODE, secKey, key.ivSpec);
-            return cipher.doFinal(data);
-        } catch (NoSuchAlgorithmException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (NoSuchPaddingException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (InvalidKeyException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (InvalidAlgorithmParameterException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (IllegalBlockSizeException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (BadPaddingException e){
+            return cbc(Cipher.ENCRYPT_MODE, key.keySpec, key.ivSpec, data);
+        } catch (GeneralSecurityException e) {
             throw new CothorityCryptoException(e.getMessage());
         }
     }
@@ -93,25 +103,36 @@ public class Encryption {
      * @param dataEnc the encrypted data from the skipchain
      * @param keyMaterial the decrypted keyMaterial
      * @return decrypted data
-     * @throws Exception
+     * @throws CothorityCryptoException if the data cannot be decrypted.
      */
     public static byte[] decryptData(byte[] dataEnc, byte[] keyMaterial) throws CothorityCryptoException {
         keyIv key = new keyIv(keyMaterial);
         try {
-            Cipher cipher = Cipher.getInstance(algo);
-            cipher.init(Cipher.DECRYPT_MODE, key.keySpec, key.ivSpec);
-            return cipher.doFinal(dataEnc);
-        } catch (NoSuchAlgorithmException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (NoSuchPaddingException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (InvalidKeyException e){
+            return cbc(Cipher.DECRYPT_MODE, key.keySpec, key.ivSpec, dataEnc);
+        } catch (GeneralSecurityException e) {
             throw new CothorityCryptoException(e.getMessage());
-        } catch (InvalidAlgorithmParameterException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (IllegalBlockSizeException e){
-            throw new CothorityCryptoException(e.getMessage());
-        } catch (BadPaddingException e){
+        }
+    }
+
+    /**
+     * Decrypts data written by earlier versions of encryptData, which
+     * encrypted with an all-zero key instead of the key in the key material.
+     * CBC has no authentication, so wrong data only fails if its padding
+     * happens to be invalid, and this must only be used for data that is
+     * known to be in the old format.
+     *
+     * @param dataEnc the encrypted data from the skipchain
+     * @param keyMaterial the decrypted keyMaterial, of which only the iv
+     *                    and the length of the key are used
+     * @return decrypted data
+     * @throws CothorityCryptoException if the data cannot be decrypted.
+     */
+    public static byte[] decryptLegacyData(byte[] dataEnc, byte[] keyMaterial) throws CothorityCryptoException {
+        keyIv key = new keyIv(keyMaterial);
+        try {
+            SecretKeySpec legacy = new SecretKeySpec(new byte[key.symmetricKey.length], algoKey);
+            return cbc(Cipher.DECRYPT_MODE, legacy, key.ivSpec, dataEnc);
+        } catch (GeneralSecurityException e) {
             throw new CothorityCryptoException(e.getMessage());
         }
     }
@@ -122,10 +143,162 @@ public class Encryption {
      * @param dataEnc as google protobuf bytestring
      * @param keyMaterial the decrypted keyMaterial
      * @return decypted data
-     * @throws Exception
+     * @throws CothorityCryptoException if the data cannot be decrypted.
      */
     public static byte[] decryptData(ByteString dataEnc, byte[] keyMaterial) throws CothorityCryptoException {
         return decryptData(dataEnc.toByteArray(), keyMaterial);
     }
 
+    /**
+     * Returns a stream that encrypts everything written to it and writes it to out. The stream must be closed,
+     * else the end of the data is missing and it will not decrypt.
+     *
+     * @param out where the encrypted data is written to
+     * @param keyMaterial the key material as for encryptData. Only the symmetric key is used, every stream gets
+     *                    its own key derived from it and a random salt.
+     * @return the stream to write the plaintext to
+     * @throws CothorityCryptoException if the key material is invalid.
+     * @throws IOException if the header cannot be written to out.
+     */
+    public static OutputStream encryptStream(OutputStream out, byte[] keyMaterial)
+            throws CothorityCryptoException, IOException {
+        return new EncryptingOutputStream(out, ChunkCipher.create(new keyIv(keyMaterial).keySpec, chunkLength));
+    }
+
+    /**
+     * Returns a stream that decrypts the data of in, as written by encryptStream or encryptBuffer. Every chunk is
+     * authenticated before it is returned, and a chunk that isn't authentic throws an IOException with a
+     * CothorityCryptoException as cause. A truncated stream is only detected at its end, so the plaintext must
+     * not be used before the stream has been read completely.
+     *
+     * @param in the encrypted data
+     * @param keyMaterial the key material used to encrypt the data
+     * @return the stream of the plaintext
+     * @throws CothorityCryptoException if the key material or the header of in is invalid.
+     * @throws IOException if the header cannot be read from in.
+     */
+    public static InputStream decryptStream(InputStream in, byte[] keyMaterial)
+            throws CothorityCryptoException, IOException {
+        byte[] header = new byte[ChunkCipher.headerLength];
+        int read = 0;
+        while (read < header.length) {
+            int n = in.read(header, read, header.length - read);
+            if (n < 0) {
+                throw new CothorityCryptoException("encrypted stream is too short");
+            }
+            read += n;
+        }
+        return new DecryptingInputStream(in, ChunkCipher.fromHeader(new keyIv(keyMaterial).keySpec, header));
+    }
+
+    /**
+     * Encrypts the remaining bytes of data, in parallel chunks, into a direct buffer. The position of data is
+     * not changed.
+     *
+     * @param data the plaintext
+     * @param keyMaterial the key material as for encryptData.
+     * @return the encrypted data in the format of encryptStream
+     * @throws CothorityCryptoException if the key material is invalid or the data is too big.
+     */
+    public static ByteBuffer encryptBuffer(ByteBuffer data, byte[] keyMaterial) throws CothorityCryptoException {
+        ChunkCipher cipher = ChunkCipher.create(new keyIv(keyMaterial).keySpec, chunkLength);
+        long length = cipher.encryptedLength(data.remaining());
+        if (length > Integer.MAX_VALUE) {
+            throw new CothorityCryptoException("data is too big for a buffer");
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect((int) length);
+        out.put(cipher.getHeader());
+        ByteBuffer in = data.slice();
+        ByteBuffer enc = out.slice();
+        int chunks = (int) Math.max(1, ((long) in.limit() + cipher.chunkLength - 1) / cipher.chunkLength);
+        parallel(chunks, i -> {
+            int start = i * cipher.chunkLength;
+            int end = Math.min(start + cipher.chunkLength, in.limit());
+            cipher.seal(i, i == chunks - 1, window(in, start, end),
+                    window(enc, start + i * ChunkCipher.tagLength, end + (i + 1) * ChunkCipher.tagLength));
+        });
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Decrypts and authenticates the remaining bytes of enc, as written by encryptBuffer or encryptStream, in
+     * parallel chunks into a direct buffer. The position of enc is not changed.
+     *
+     * @param enc the encrypted data
+     * @param keyMaterial the key material used to encrypt the data
+     * @return the plaintext
+     * @throws CothorityCryptoException if the key material is invalid or the data is not authentic.
+     */
+    public static ByteBuffer decryptBuffer(ByteBuffer enc, byte[] keyMaterial) throws CothorityCryptoException {
+        ByteBuffer in = enc.slice();
+        if (in.remaining() < ChunkCipher.headerLength) {
+            throw new CothorityCryptoException("encrypted stream is too short");
+        }
+        byte[] header = new byte[ChunkCipher.headerLength];
+        in.get(header);
+        ChunkCipher cipher = ChunkCipher.fromHeader(new keyIv(keyMaterial).keySpec, header);
+        ByteBuffer chunkData = in.slice();
+        int encChunk = cipher.chunkLength + ChunkCipher.tagLength;
+        int chunks = chunkData.remaining() / encChunk + (chunkData.remaining() % encChunk > 0 ? 1 : 0);
+        if (chunks == 0 || chunkData.remaining() - (chunks - 1) * encChunk < ChunkCipher.tagLength) {
+            throw new CothorityCryptoException("encrypted stream is truncated");
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(chunkData.remaining() - chunks * ChunkCipher.tagLength);
+        parallel(chunks, i -> {
+            int start = i * encChunk;
+            int end = Math.min(start + encChunk, chunkData.limit());
+            cipher.open(i, i == chunks - 1, window(chunkData, start, end),
+                    window(out, i * cipher.chunkLength, end - (i + 1) * ChunkCipher.tagLength));
+        });
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Returns a SecureRandom of the current thread.
+     */
+    static SecureRandom random() {
+        return randoms.get();
+    }
+
+    private static byte[] cbc(int mode, SecretKeySpec key, IvParameterSpec iv, byte[] data)
+            throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(mode, key, iv);
+        return cipher.doFinal(data);
+    }
+
+    private static ByteBuffer window(ByteBuffer buf, int start, int end) {
+        ByteBuffer w = buf.duplicate();
+        w.limit(end).position(start);
+        return w.slice();
+    }
+
+    private interface ChunkTask {
+        void run(int index) throws CothorityCryptoException;
+    }
+
+    /**
+     * Runs the task for every chunk on the common fork-join pool and throws the first error.
+     */
+    private static void parallel(int chunks, ChunkTask task) throws CothorityCryptoException {
+        try {
+            IntStream.range(0, chunks).parallel().forEach(i -> {
+                try {
+                    task.run(i);
+                } catch (CothorityCryptoException e) {
+                    throw new ChunkException(e);
+                }
+            });
+        } catch (ChunkException e) {
+            throw (CothorityCryptoException) e.getCause();
+        }
+    }
+
+    private static class ChunkException extends RuntimeException {
+        ChunkException(CothorityCryptoException cause) {
+            super(cause);
+        }
+    }
 }
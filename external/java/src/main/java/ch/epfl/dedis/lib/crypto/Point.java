@@ -49,9 +49,14 @@ public class Point {
     }
 
     public Point scalarMult(Scalar s) {
-        element = element.toP3();
-        element.precompute(true);
-        return new Point(element.scalarMultiply(s.getLittleEndian()));
+        // The base point of the curve comes with its precomputed table, every other point needs a copy
+        // with its own table, so that points shared between threads are never changed.
+        GroupElement p3 = element;
+        if (p3 != Ed25519.ed25519.getB()) {
+            p3 = element.toP3();
+            p3.precompute(true);
+        }
+        return new Point(p3.scalarMultiply(s.getLittleEndian()));
     }
 
     public Point add(Point other) {
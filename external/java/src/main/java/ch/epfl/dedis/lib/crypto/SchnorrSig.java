@@ -1,12 +1,18 @@
 package ch.epfl.dedis.lib.crypto;
 
-import ch.epfl.dedis.proto.SkipBlockProto;
-
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public class SchnorrSig {
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    });
+
     public Point challenge;
     public Scalar response;
 
@@ -25,11 +31,7 @@ public class SchnorrSig {
     }
 
     public boolean verify(byte[] msg, Point pub) {
-        Scalar hash = toHash(challenge, pub, msg);
-        Point S = response.scalarMult(null);
-        Point Ah = pub.scalarMult(hash);
-        Point RAs = challenge.add(Ah);
-        return S.equals(RAs);
+        return new VerificationKey(pub).verify(msg, this);
     }
 
     public byte[] toBytes() {
@@ -44,15 +46,21 @@ public class SchnorrSig {
      * hash function. We use SHA-256 here as it is what is needed for the corresponding conodes.
      */
     private Scalar toHash(Point challenge, Point pub, byte[] msg) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(challenge.toBytes());
-            digest.update(pub.toBytes());
-            digest.update(msg);
-            byte[] hash = Arrays.copyOfRange(digest.digest(), 0, 64);
-            return new Scalar(hash);
-        } catch (NoSuchAlgorithmException e) {
+        return toHash(challenge.toBytes(), pub.toBytes(), msg);
+    }
+
+    /**
+     * Same as toHash, but on the already encoded challenge and public key.
+     */
+    static Scalar toHash(byte[] challenge, byte[] pub, byte[] msg) {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
             return null;
         }
+        digest.update(challenge);
+        digest.update(pub);
+        digest.update(msg);
+        byte[] hash = Arrays.copyOfRange(digest.digest(), 0, 64);
+        return new Scalar(hash);
     }
 }
@@ -0,0 +1,116 @@
+package ch.epfl.dedis.lib.crypto;
+
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.math.ScalarOps;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * VerificationKey is a public key prepared for verifying many Schnorr signatures. The encoding of the key and
+ * the precomputed table of its negation are computed once, and the key is never changed afterwards, so it can be
+ * shared between threads.
+ * <p>
+ * A signature (R, S) on msg is valid if S * B == R + H(R | A | msg) * A. This is checked as
+ * R == S * B - H(R | A | msg) * A with a single double scalar multiplication, using the precomputed table of the
+ * base point B and the one of -A.
+ */
+public class VerificationKey {
+    // The batches of a BlockVerifier run in parallel, so every thread keeps its own.
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+    private static final GroupElement base = Ed25519.ed25519.getB();
+    private static final ScalarOps scalarOps = Ed25519.ed25519.getScalarOps();
+    private static final byte[] zero = new byte[32];
+    // length in bytes of the random factors of a batch
+    private static final int zLength = 16;
+
+    private final Point point;
+    private final byte[] encoded;
+    private final GroupElement negative;
+
+    public VerificationKey(Point point) {
+        this.point = point;
+        this.encoded = point.toBytes();
+        this.negative = point.element.toP3().negate();
+        this.negative.precompute(false);
+    }
+
+    public Point getPoint() {
+        return point;
+    }
+
+    /**
+     * Verifies a single signature.
+     *
+     * @param msg the signed message
+     * @param sig the signature
+     * @return true if the signature is valid.
+     */
+    public boolean verify(byte[] msg, SchnorrSig sig) {
+        byte[] challenge = sig.challenge.toBytes();
+        Scalar hash = SchnorrSig.toHash(challenge, encoded, msg);
+        if (hash == null) {
+            return false;
+        }
+        GroupElement r = base.doubleScalarMultiplyVariableTime(negative, hash.getLittleEndian(),
+                sig.response.getLittleEndian());
+        return Arrays.equals(r.toByteArray(), challenge);
+    }
+
+    /**
+     * Verifies many signatures on different messages at once. Every equation is multiplied by a random 128-bit
+     * factor z_i and the sum is checked:
+     * (sum z_i * S_i) * B - (sum z_i * H_i) * A == sum z_i * R_i.
+     * The two sums of scalars replace the multiplications by B and A of every signature. The sum of the z_i * R_i
+     * is computed with a single double-and-add over the bits of all z_i at once, so the doublings are shared and
+     * the R_i need no precomputed tables, which would cost more than they save.
+     * <p>
+     * If this returns false, at least one of the signatures is invalid and they need to be verified one by one to
+     * find out which.
+     *
+     * @param msgs the signed messages
+     * @param sigs the signatures, in the same order as the messages
+     * @return true if all signatures are valid.
+     */
+    public boolean verifyBatch(List<byte[]> msgs, List<SchnorrSig> sigs) {
+        if (msgs.size() != sigs.size()) {
+            throw new IllegalArgumentException("need as many messages as signatures");
+        }
+        if (sigs.size() < 2) {
+            return sigs.isEmpty() || verify(msgs.get(0), sigs.get(0));
+        }
+        byte[] sumS = zero;
+        byte[] sumH = zero;
+        byte[][] zs = new byte[sigs.size()][];
+        GroupElement[] rs = new GroupElement[sigs.size()];
+        for (int i = 0; i < sigs.size(); i++) {
+            SchnorrSig sig = sigs.get(i);
+            Scalar hash = SchnorrSig.toHash(sig.challenge.toBytes(), encoded, msgs.get(i));
+            if (hash == null) {
+                return false;
+            }
+            byte[] z = new byte[32];
+            byte[] rnd = new byte[zLength];
+            randoms.get().nextBytes(rnd);
+            System.arraycopy(rnd, 0, z, 0, rnd.length);
+            zs[i] = z;
+            rs[i] = sig.challenge.element.toP3().toCached();
+
+            sumS = scalarOps.multiplyAndAdd(z, sig.response.toBytes(), sumS);
+            sumH = scalarOps.multiplyAndAdd(z, hash.getLittleEndian(), sumH);
+        }
+
+        GroupElement sumR = Ed25519.curve.getZero(GroupElement.Representation.P3);
+        for (int bit = zLength * 8 - 1; bit >= 0; bit--) {
+            sumR = sumR.dbl().toP3();
+            for (int i = 0; i < rs.length; i++) {
+                if ((zs[i][bit >> 3] >> (bit & 7) & 1) != 0) {
+                    sumR = sumR.add(rs[i]).toP3();
+                }
+            }
+        }
+        GroupElement left = base.doubleScalarMultiplyVariableTime(negative, sumH, sumS);
+        return Arrays.equals(left.toByteArray(), sumR.toByteArray());
+    }
+}
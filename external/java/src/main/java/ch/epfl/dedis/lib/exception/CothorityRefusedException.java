@@ -0,0 +1,15 @@
+package ch.epfl.dedis.lib.exception;
+
+/**
+ * Thrown if a conode refused a request, e.g. because the key doesn't exist or already exists. The conode got the
+ * request and answered, so it is not sent to another conode.
+ */
+public class CothorityRefusedException extends CothorityCommunicationException {
+    public CothorityRefusedException(String message) {
+        super(message);
+    }
+
+    public CothorityRefusedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
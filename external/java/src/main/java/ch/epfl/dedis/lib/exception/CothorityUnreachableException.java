@@ -0,0 +1,15 @@
+package ch.epfl.dedis.lib.exception;
+
+/**
+ * Thrown if no connection to a conode could be opened. The request has not been sent, so it is safe to send it
+ * to another conode, even if it is not idempotent.
+ */
+public class CothorityUnreachableException extends CothorityCommunicationException {
+    public CothorityUnreachableException(String message) {
+        super(message);
+    }
+
+    public CothorityUnreachableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
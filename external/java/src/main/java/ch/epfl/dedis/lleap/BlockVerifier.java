@@ -0,0 +1,210 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.Metrics;
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.lib.SkipblockId;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.crypto.VerificationKey;
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import ch.epfl.dedis.lib.exception.CothorityException;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.SkipBlockProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * BlockVerifier verifies KeyValueBlocks against a genesis block. The roster of the genesis block is parsed only
+ * once and its aggregate key is prepared for verification, so a BlockVerifier should be kept and reused to verify
+ * many blocks. It is thread-safe.
+ */
+public class BlockVerifier {
+    // Number of blocks whose signatures are verified together in a batch.
+    private static final int batchSize = 64;
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    });
+
+    private final SkipBlock genesis;
+    private final SkipblockId genesisId;
+    private final VerificationKey aggregate;
+    private final Logger logger = LoggerFactory.getLogger(BlockVerifier.class);
+
+    /**
+     * Creates a BlockVerifier for the skipchain starting with genesis.
+     *
+     * @param genesis is the genesis block. The user is expected to store the genesis block at
+     *                initialisation.
+     * @throws CothorityException if the roster of the genesis block cannot be parsed.
+     */
+    public BlockVerifier(SkipBlock genesis) throws CothorityException {
+        this.genesis = genesis;
+        this.genesisId = genesis.getId();
+        this.aggregate = new VerificationKey(genesis.getRoster().getAggregate());
+    }
+
+    /**
+     * Convenience constructor if you have the genesis block as an array of bytes.
+     *
+     * @param genesisBuf is the genesis block as a byte array.
+     * @throws CothorityException if the genesis block cannot be parsed.
+     */
+    public BlockVerifier(byte[] genesisBuf) throws CothorityException {
+        this(new SkipBlock(genesisBuf));
+    }
+
+    public SkipBlock getGenesis() {
+        return genesis;
+    }
+
+    /**
+     * verify performs various integrity checks on the block and, more importantly, checks the collective
+     * signature which implies block inclusion. Blocks that have already been verified against the same genesis
+     * block are not verified again.
+     *
+     * @param kvb the block to verify
+     * @return true if the verification is ok, otherwise false.
+     */
+    public boolean verify(KeyValueBlock kvb) {
+        if (kvb.isVerified(genesisId)) {
+            return true;
+        }
+        long start = Metrics.start();
+        boolean ok = check(kvb);
+        Metrics.verified(start, ok);
+        return ok;
+    }
+
+    private boolean check(KeyValueBlock kvb) {
+        SchnorrSig sig = checkStructure(kvb);
+        if (sig == null) {
+            return false;
+        }
+        if (!aggregate.verify(kvb.getResponse().getForwardlink().getSignature().getMsg().toByteArray(), sig)) {
+            logger.error("aggregate signature verification failed");
+            return false;
+        }
+        kvb.setVerified(genesisId);
+        return true;
+    }
+
+    /**
+     * verify verifies many blocks in parallel. The collective signatures are verified in batches, and only if a
+     * batch fails are its signatures verified one by one.
+     *
+     * @param blocks the blocks to verify
+     * @return for every block, true if its verification is ok, otherwise false.
+     */
+    public List<Boolean> verify(List<KeyValueBlock> blocks) {
+        boolean[] ok = new boolean[blocks.size()];
+        int batches = (blocks.size() + batchSize - 1) / batchSize;
+        IntStream.range(0, batches).parallel().forEach(b ->
+                verifyBatch(blocks, b * batchSize, Math.min(blocks.size(), (b + 1) * batchSize), ok));
+        List<Boolean> result = new ArrayList<>(ok.length);
+        for (boolean o : ok) {
+            result.add(o);
+        }
+        return result;
+    }
+
+    private void verifyBatch(List<KeyValueBlock> blocks, int from, int to, boolean[] ok) {
+        List<Integer> indexes = new ArrayList<>();
+        List<byte[]> msgs = new ArrayList<>();
+        List<SchnorrSig> sigs = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (blocks.get(i).isVerified(genesisId)) {
+                ok[i] = true;
+                continue;
+            }
+            SchnorrSig sig = checkStructure(blocks.get(i));
+            if (sig != null) {
+                indexes.add(i);
+                msgs.add(blocks.get(i).getResponse().getForwardlink().getSignature().getMsg().toByteArray());
+                sigs.add(sig);
+            }
+        }
+        if (aggregate.verifyBatch(msgs, sigs)) {
+            for (int i : indexes) {
+                ok[i] = true;
+                blocks.get(i).setVerified(genesisId);
+            }
+            return;
+        }
+        for (int j = 0; j < indexes.size(); j++) {
+            int i = indexes.get(j);
+            ok[i] = aggregate.verify(msgs.get(j), sigs.get(j));
+            if (ok[i]) {
+                blocks.get(i).setVerified(genesisId);
+            } else {
+                logger.error("aggregate signature verification failed");
+            }
+        }
+    }
+
+    /**
+     * Checks that the message signed by a forward link is the digest of the link: the hash of its from, its to
+     * and the id of its new roster.
+     *
+     * @param fl the forward link to check
+     * @return true if the message is the digest of the link.
+     * @throws CothorityCryptoException if SHA-256 is not available.
+     */
+    static boolean checkDigest(SkipBlockProto.ForwardLink fl) throws CothorityCryptoException {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            throw new CothorityCryptoException("must find SHA-256");
+        }
+        digest.update(fl.getFrom().asReadOnlyByteBuffer());
+        digest.update(fl.getTo().asReadOnlyByteBuffer());
+        if (fl.hasNewRoster()) {
+            digest.update(fl.getNewRoster().getId().asReadOnlyByteBuffer());
+        }
+        return Arrays.equals(fl.getSignature().getMsg().toByteArray(), digest.digest());
+    }
+
+    /**
+     * Does all checks except for the collective signature.
+     *
+     * @return the collective signature to verify, or null if a check failed.
+     */
+    private SchnorrSig checkStructure(KeyValueBlock kvb) {
+        try {
+            // sanity check on the key/value pairs and the forward link
+            if (kvb.getKeyBS() == null) {
+                logger.error("key 'newkey' does not exist");
+                return null;
+            }
+            LleapProto.GetValueResponse resp = kvb.getResponse();
+            if (resp == null) {
+                logger.error("block has no forward link");
+                return null;
+            }
+
+            if (!resp.getSkipblock().getHash().equals(resp.getForwardlink().getTo())) {
+                logger.error("bad forward link");
+                return null;
+            }
+
+            // forward link hash and check it
+            SkipBlockProto.ForwardLink fl = resp.getForwardlink();
+            if (!checkDigest(fl)) {
+                logger.error("msg in signature is not the same as forward link digest");
+                return null;
+            }
+            return new SchnorrSig(fl.getSignature().getSig().toByteArray());
+        } catch (CothorityException | IllegalArgumentException e) {
+            logger.error(e.toString());
+            return null;
+        }
+    }
+}
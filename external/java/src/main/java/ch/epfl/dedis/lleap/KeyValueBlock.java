@@ -2,28 +2,42 @@ package ch.epfl.dedis.lleap;
 
 import ch.epfl.dedis.lib.CISC;
 import ch.epfl.dedis.lib.SkipBlock;
-import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.SkipblockId;
 import ch.epfl.dedis.lib.exception.CothorityException;
 import ch.epfl.dedis.proto.IdentityProto;
 import ch.epfl.dedis.proto.LleapProto;
-import ch.epfl.dedis.proto.SkipBlockProto;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+
 
 /**
  * KeyValueBlock is the response that is returned by SkipchainRPC. It allows the user to access various properties of
  * the response and, more importantly, verify the collective signature which implies block inclusion.
  */
 public class KeyValueBlock {
+    // Signature instances are not thread-safe, so every thread gets its own.
+    private static final ThreadLocal<Signature> verifiers = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    });
     private LleapProto.GetValueResponse resp;
     private final Logger logger = LoggerFactory.getLogger(KeyValueBlock.class);
     private IdentityProto.Data data = null;
     private CISC cisc;
+    // id of the genesis block this block has been verified against
+    private volatile SkipblockId verifiedFor;
 
     /**
      * Instantiates a KeyValueBlock with a response from a GetValue request.
@@ -69,7 +83,8 @@ public class KeyValueBlock {
 
     /**
      * verifyBlock verifies the block by performing various integrity checks and, more importantly, checks the
-     * collective signature which implies block inclusion.
+     * collective signature which implies block inclusion. To verify many blocks, create a BlockVerifier once and
+     * reuse it.
      *
      * @param genesis is the genesis block. The user is expected to store the genesis block at
      *                initialisation.
@@ -77,47 +92,14 @@ public class KeyValueBlock {
      */
     public boolean verifyBlock(SkipBlock genesis) {
         try {
-            // sanity check on the key/value pairs and the forward link
-            if (this.getKey() == null) {
-                logger.error("key 'newkey' does not exist");
-                return false;
-            }
-
-            if (!resp.getSkipblock().getHash().equals(this.resp.getForwardlink().getTo())) {
-                logger.error("bad forward link");
-                return false;
-            }
-
-            // forward link hash and check it
-            MessageDigest digest;
-            try {
-                digest = MessageDigest.getInstance("SHA-256");
-            } catch (NoSuchAlgorithmException e) {
-                logger.error("must find SHA-256");
-                return false;
-            }
-            digest.update(resp.getForwardlink().getFrom().toByteArray());
-            digest.update(resp.getForwardlink().getTo().toByteArray());
-            if (resp.getForwardlink().hasNewRoster()) {
-                digest.update(resp.getForwardlink().getNewRoster().getId().toByteArray());
-            }
-            if (!Arrays.equals(resp.getForwardlink().getSignature().getMsg().toByteArray(), digest.digest())) {
-                logger.error("msg in signature is not the same as forward link digest");
-                return false;
-            }
-
-            // check the collective signature
-            SkipBlockProto.FinalSignature fwlSig = resp.getForwardlink().getSignature();
-            SchnorrSig schnorr = new SchnorrSig(fwlSig.getSig().toByteArray());
-            if (!schnorr.verify(fwlSig.getMsg().toByteArray(), genesis.getRoster().getAggregate())) {
-                logger.error("aggregate signature verification failed");
-                return false;
+            if (isVerified(genesis.getId())) {
+                return true;
             }
+            return new BlockVerifier(genesis).verify(this);
         } catch (CothorityException e) {
             logger.error(e.toString());
             return false;
         }
-        return true;
     }
 
     /**
@@ -136,28 +118,127 @@ public class KeyValueBlock {
     }
 
     public byte[] getValue() throws CothorityException {
-        return cisc.getValue("newvalue");
+        return toByteArray(getValueBS());
     }
 
     public byte[] getKey() throws CothorityException {
-        return cisc.getValue("newkey");
+        return toByteArray(getKeyBS());
     }
 
     public byte[] getTimestamp() throws CothorityException {
-        return cisc.getValue("timestamp");
+        return toByteArray(getTimestampBS());
     }
 
     public byte[] getSignature() throws CothorityException {
-        return cisc.getValue("newsig");
+        return toByteArray(getSignatureBS());
     }
 
     public byte[] getSignedMsg() throws CothorityException {
-        byte[] key = this.getKey();
-        byte[] value = this.getValue();
-        byte[] message = new byte[key.length + value.length];
-        System.arraycopy(key, 0, message, 0, key.length);
-        System.arraycopy(value, 0, message, key.length, value.length);
-        return message;
+        return getSignedMsgBS().toByteArray();
+    }
+
+    /**
+     * Returns the value without copying it.
+     *
+     * @return an immutable view on the value, or null if the block holds no value.
+     * @throws CothorityException if the data of the block cannot be parsed.
+     */
+    public ByteString getValueBS() throws CothorityException {
+        return cisc.getValueBS("newvalue");
+    }
+
+    /**
+     * Returns the value as a read-only ByteBuffer, without copying it. The buffer starts at index 0.
+     *
+     * @return a view on the value, or null if the block holds no value.
+     * @throws CothorityException if the data of the block cannot be parsed.
+     */
+    public ByteBuffer getValueBuffer() throws CothorityException {
+        ByteString value = getValueBS();
+        if (value == null) {
+            return null;
+        }
+        // The view on a part of the block starts at the position of the value, slice makes it start at 0.
+        return value.asReadOnlyByteBuffer().slice();
+    }
+
+    public ByteString getKeyBS() throws CothorityException {
+        return cisc.getValueBS("newkey");
+    }
+
+    public ByteString getTimestampBS() throws CothorityException {
+        return cisc.getValueBS("timestamp");
+    }
+
+    public ByteString getSignatureBS() throws CothorityException {
+        return cisc.getValueBS("newsig");
+    }
+
+    /**
+     * Returns the message signed by the writer, (key | value), as a concatenation of the views on the key and the
+     * value, so nothing is copied.
+     *
+     * @return the signed message.
+     * @throws CothorityException if the data of the block cannot be parsed or holds no key or value.
+     */
+    public ByteString getSignedMsgBS() throws CothorityException {
+        ByteString key = getKeyBS();
+        ByteString value = getValueBS();
+        if (key == null || value == null) {
+            throw new CothorityException("block holds no key/value pair");
+        }
+        return key.concat(value);
+    }
+
+    /**
+     * Verifies the signature of the writer on (key | value) with SHA256withRSA. The key and the value are
+     * streamed into the signature without being copied.
+     *
+     * @param publicKey the public key of the writer, as stored in the genesis block
+     * @return true if the signature is valid.
+     * @throws CothorityException if the data of the block cannot be parsed or the public key is invalid.
+     */
+    public boolean verifySignature(PublicKey publicKey) throws CothorityException {
+        ByteString signed = getSignatureBS();
+        if (signed == null) {
+            return false;
+        }
+        try {
+            Signature verify = verifiers.get();
+            verify.initVerify(publicKey);
+            for (ByteBuffer part : getSignedMsgBS().asReadOnlyByteBufferList()) {
+                verify.update(part);
+            }
+            return verify.verify(signed.toByteArray());
+        } catch (InvalidKeyException | SignatureException e) {
+            throw new CothorityException(e);
+        }
+    }
+
+    private static byte[] toByteArray(ByteString bs) {
+        if (bs == null) {
+            return null;
+        }
+        return bs.toByteArray();
+    }
+
+    /**
+     * Returns the GetValue response this block was created from, or null if it was read out of a skipblock.
+     */
+    LleapProto.GetValueResponse getResponse() {
+        return resp;
+    }
+
+    /**
+     * Returns true if this block has already been verified against the given genesis block. A block doesn't
+     * change once it has a forward link, so the verification doesn't need to be repeated.
+     */
+    boolean isVerified(SkipblockId genesisId) {
+        return genesisId.equals(verifiedFor);
+    }
+
+    void setVerified(SkipblockId genesisId) {
+        verifiedFor = genesisId;
     }
 
     public byte[] toByteArray() {
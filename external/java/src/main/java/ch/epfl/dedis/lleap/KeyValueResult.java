@@ -0,0 +1,68 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityException;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * KeyValueResult holds the outcome of one key in a bulk request to SkipchainRPC. Every key of a bulk request
+ * gets its own result, so that one refused key does not fail the whole batch.
+ *
+ * @param <T> the type returned for a successful key, Void for writes.
+ */
+public class KeyValueResult<T> {
+    private final byte[] key;
+    private final T result;
+    private final CothorityException error;
+
+    KeyValueResult(byte[] key, T result, Throwable error) {
+        this.key = key;
+        this.result = result;
+        this.error = error == null ? null : toCothorityException(error);
+    }
+
+    /**
+     * @return the key this result belongs to.
+     */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * @return true if the request for this key succeeded.
+     */
+    public boolean isOk() {
+        return error == null;
+    }
+
+    /**
+     * Returns the result for this key.
+     *
+     * @return the result, null for writes.
+     * @throws CothorityException if the request for this key failed.
+     */
+    public T get() throws CothorityException {
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    /**
+     * @return the error of the request for this key, or null if it succeeded.
+     */
+    public CothorityException getError() {
+        return error;
+    }
+
+    private static CothorityException toCothorityException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof CothorityException) {
+            return (CothorityException) e;
+        }
+        return new CothorityCommunicationException(e.toString(), e);
+    }
+}
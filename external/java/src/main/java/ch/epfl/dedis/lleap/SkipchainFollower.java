@@ -0,0 +1,387 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.BlockCache;
+import ch.epfl.dedis.lib.ConnectionManager;
+import ch.epfl.dedis.lib.Roster;
+import ch.epfl.dedis.lib.Sha256id;
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.lib.SkipblockId;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.crypto.VerificationKey;
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import ch.epfl.dedis.lib.exception.CothorityException;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.ServerIdentityProto;
+import ch.epfl.dedis.proto.SkipBlockProto;
+import com.google.protobuf.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * SkipchainFollower keeps a verified head of the skipchain of a SkipchainRPC, starting from its genesis block.
+ * <p>
+ * To catch up, it follows the highest forward link of every block, so that it gets to the newest block in a
+ * logarithmic number of hops, and only the collective signature of every hop is verified, with the roster of the
+ * block the hop starts from. A forward link with a new roster hands over to the roster of the next block.
+ * <p>
+ * If there are subscribers or the SkipchainRPC has a BlockCache, the blocks skipped by a hop are fetched as well,
+ * in parallel, by walking the back links of the blocks down to where the hop started. These blocks are verified
+ * by their hash only, as their ids are part of blocks that are already verified. Every new key/value block is
+ * given to the subscribers in the order of the skipchain, together with the forward link from the block before
+ * it. These forward links are verified as well, with the roster of the block they start from, so the key/value
+ * blocks are proofs that can be kept and verified later. The key/value blocks signed by the roster of the genesis
+ * block are marked as verified and put into the cache, so that getKeyValueBlock can answer without asking the
+ * conodes. After a roster change, the key/value blocks cannot be verified with a BlockVerifier of the genesis
+ * block, so they are neither marked nor cached.
+ * <p>
+ * The index and the heights of a block are not covered by its hash, so a conode can change them freely. They are
+ * only used to decide which blocks to fetch in parallel. The order of the blocks, and that none is missing, is
+ * taken from the back links at level 0, which are covered by the hashes. A conode can still hold back the newest
+ * blocks, but it cannot reorder or skip blocks.
+ */
+public class SkipchainFollower {
+    private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "skipchain follower");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SkipchainRPC rpc;
+    private final SkipBlock genesis;
+    private final SkipblockId genesisId;
+    private final List<Consumer<KeyValueBlock>> subscribers = new CopyOnWriteArrayList<>();
+    private volatile SkipBlock head;
+    private volatile Roster roster;
+    private VerificationKey key;
+    private ScheduledFuture<?> polling;
+    private final Logger logger = LoggerFactory.getLogger(SkipchainFollower.class);
+
+    /**
+     * Creates a follower whose head is the genesis block of rpc.
+     *
+     * @param rpc the skipchain to follow
+     * @throws CothorityException if the genesis block or its roster cannot be parsed.
+     */
+    public SkipchainFollower(SkipchainRPC rpc) throws CothorityException {
+        this.rpc = rpc;
+        this.genesis = rpc.getGenesis();
+        this.head = genesis;
+        this.genesisId = genesis.getId();
+        this.roster = head.getRoster();
+        this.key = new VerificationKey(roster.getAggregate());
+    }
+
+    /**
+     * @return the newest verified block.
+     */
+    public SkipBlock getHead() {
+        return head;
+    }
+
+    /**
+     * @return the roster of the newest verified block.
+     */
+    public Roster getRoster() {
+        return roster;
+    }
+
+    /**
+     * Adds a subscriber that gets every key/value block newer than the head, once it is verified. The
+     * subscribers are called on the thread updating the follower and must not block.
+     */
+    public void subscribe(Consumer<KeyValueBlock> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<KeyValueBlock> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Fetches and verifies the blocks after the head, up to the newest one.
+     *
+     * @return by how many blocks the head moved, according to the indexes of the blocks, which are not verified.
+     * @throws CothorityException if a block cannot be fetched or doesn't verify. The head is then the last
+     *                            block that verified.
+     */
+    public synchronized int update() throws CothorityException {
+        int start = head.getIndex();
+        // The head might have gotten new forward links since it was fetched.
+        SkipBlock current = fetch(head.getId());
+        while (current.getProto().getForwardCount() > 0) {
+            List<SkipBlockProto.ForwardLink> links = current.getProto().getForwardList();
+            SkipBlockProto.ForwardLink link = links.get(links.size() - 1);
+            SkipBlock next = hop(current, link);
+            if (!subscribers.isEmpty() || rpc.getBlockCache() != null) {
+                publish(between(current, next));
+            }
+            if (!samePublics(current, next)) {
+                logger.debug("Following new roster of block {}", next.getIndex());
+                roster = next.getRoster();
+                key = new VerificationKey(roster.getAggregate());
+            }
+            head = next;
+            current = next;
+        }
+        return head.getIndex() - start;
+    }
+
+    /**
+     * Updates the follower every period in the background, until stop is called. Errors are logged and the next
+     * update tries again.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        stop();
+        polling = poller.scheduleWithFixedDelay(() -> {
+            try {
+                update();
+            } catch (CothorityException | RuntimeException e) {
+                logger.warn("Couldn't update skipchain: {}", e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+    }
+
+    /**
+     * Verifies the forward link from the current block and returns the block it points to.
+     */
+    private SkipBlock hop(SkipBlock current, SkipBlockProto.ForwardLink link) throws CothorityException {
+        if (!link.getFrom().equals(current.getProto().getHash())) {
+            throw new CothorityCryptoException("forward link doesn't start at block " + current.getIndex());
+        }
+        if (!BlockVerifier.checkDigest(link)) {
+            throw new CothorityCryptoException("msg in signature is not the same as forward link digest");
+        }
+        byte[] msg = link.getSignature().getMsg().toByteArray();
+        if (!key.verify(msg, signature(link))) {
+            throw new CothorityCryptoException("wrong signature on forward link of block " + current.getIndex());
+        }
+
+        // The signed link shows that next comes after current.
+        SkipBlock next = fetch(new SkipblockId(link.getTo().toByteArray()));
+        check(next);
+        if (!link.hasNewRoster() && !samePublics(current, next)) {
+            throw new CothorityCryptoException("roster changed without new roster in block " + next.getIndex());
+        }
+        return next;
+    }
+
+    /**
+     * Returns the blocks from first to last, both included. The blocks are fetched in parallel waves along the back
+     * links of last, using the indexes and the base height to leave out the back links that point before first.
+     * Then the blocks are put in order along the back links at level 0, and a block the waves missed is fetched on
+     * its own.
+     */
+    private List<SkipBlock> between(SkipBlock first, SkipBlock last) throws CothorityException {
+        Map<SkipblockId, SkipBlock> fetched = new HashMap<>();
+        fetched.put(first.getId(), first);
+        fetched.put(last.getId(), last);
+        long base = Math.max(2, first.getBaseHeight());
+        List<SkipBlock> wave = Collections.singletonList(last);
+        while (!wave.isEmpty()) {
+            // The back link at level k points to the block base^k blocks earlier.
+            Map<SkipblockId, CompletableFuture<SkipBlock>> fetching = new HashMap<>();
+            for (SkipBlock sb : wave) {
+                long distance = 1;
+                for (SkipblockId bl : sb.getBackLinks()) {
+                    if (sb.getIndex() - distance > first.getIndex() && !fetched.containsKey(bl) &&
+                            !fetching.containsKey(bl)) {
+                        fetching.put(bl, rpc.getSkipblockAsync(roster, bl));
+                    }
+                    distance *= base;
+                }
+            }
+            wave = new ArrayList<>();
+            for (Map.Entry<SkipblockId, CompletableFuture<SkipBlock>> f : fetching.entrySet()) {
+                SkipBlock sb = ConnectionManager.await(f.getValue());
+                check(sb);
+                fetched.put(f.getKey(), sb);
+                wave.add(sb);
+            }
+        }
+
+        LinkedList<SkipBlock> blocks = new LinkedList<>();
+        SkipBlock sb = last;
+        SkipblockId firstId = first.getId();
+        while (!sb.getId().equals(firstId)) {
+            blocks.addFirst(sb);
+            List<SkipblockId> backLinks = sb.getBackLinks();
+            if (backLinks.isEmpty()) {
+                throw new CothorityCryptoException("block " + last.getIndex() + " doesn't lead back to block " +
+                        first.getIndex());
+            }
+            SkipBlock previous = fetched.get(backLinks.get(0));
+            if (previous == null) {
+                previous = fetch(backLinks.get(0));
+                check(previous);
+                fetched.put(backLinks.get(0), previous);
+            }
+            sb = previous;
+        }
+        blocks.addFirst(first);
+        return new ArrayList<>(blocks);
+    }
+
+    /**
+     * Gives the key/value blocks after the first one to the subscribers and the cache. Every block is passed
+     * with the forward link of the block before it, if it has one. The blocks whose forward link is signed by the
+     * roster of the genesis block are marked as verified and cached.
+     *
+     * @throws CothorityException if a forward link doesn't verify. No block is published then.
+     */
+    private void publish(List<SkipBlock> blocks) throws CothorityException {
+        BlockCache cache = rpc.getBlockCache();
+        boolean[] linked = verifyLinks(blocks);
+        for (int i = 1; i < blocks.size(); i++) {
+            SkipBlockProto.SkipBlock previous = blocks.get(i - 1).getProto();
+            SkipBlockProto.SkipBlock sb = blocks.get(i).getProto();
+            try {
+                KeyValueBlock kvb;
+                LleapProto.GetValueResponse resp = null;
+                if (linked[i]) {
+                    resp = LleapProto.GetValueResponse.newBuilder()
+                            .setVersion(SkipchainRPC.version)
+                            .setSkipblock(sb)
+                            .setForwardlink(previous.getForward(0))
+                            .build();
+                    kvb = new KeyValueBlock(resp);
+                } else {
+                    kvb = new KeyValueBlock(blocks.get(i));
+                }
+                ByteString kvKey = kvb.getKeyBS();
+                if (kvKey == null) {
+                    continue;
+                }
+                if (resp != null && samePublics(blocks.get(i - 1), genesis)) {
+                    // A BlockVerifier of the genesis block accepts it, so it can be served as verified.
+                    kvb.setVerified(genesisId);
+                    Sha256id id = cache != null ? rpc.keyValueId(kvKey.toByteArray()) : null;
+                    if (id != null) {
+                        cache.put(id, resp.toByteArray());
+                    }
+                }
+                for (Consumer<KeyValueBlock> subscriber : subscribers) {
+                    try {
+                        subscriber.accept(kvb);
+                    } catch (RuntimeException e) {
+                        logger.warn("Subscriber failed on block {}: {}", blocks.get(i).getIndex(), e.toString());
+                    }
+                }
+            } catch (CothorityException e) {
+                logger.debug("Block {} holds no key/value pair: {}", blocks.get(i).getIndex(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Verifies the forward links from every block to the next one, which are passed on with the blocks. Every
+     * link is verified with the roster of the block it starts from, and the links of the same roster are verified
+     * in a batch.
+     *
+     * @return for every block after the first one, whether the block before it has a forward link to it.
+     * @throws CothorityException if one of the forward links doesn't verify.
+     */
+    private boolean[] verifyLinks(List<SkipBlock> blocks) throws CothorityException {
+        boolean[] linked = new boolean[blocks.size()];
+        int i = 1;
+        while (i < blocks.size()) {
+            // The blocks of one roster follow each other, the roster only changes at some blocks.
+            SkipBlock signer = blocks.get(i - 1);
+            VerificationKey signerKey = samePublics(signer, blocks.get(0)) ? key :
+                    new VerificationKey(signer.getRoster().getAggregate());
+            List<Integer> indexes = new ArrayList<>();
+            List<byte[]> msgs = new ArrayList<>();
+            List<SchnorrSig> sigs = new ArrayList<>();
+            for (; i < blocks.size() && samePublics(blocks.get(i - 1), signer); i++) {
+                SkipBlockProto.SkipBlock previous = blocks.get(i - 1).getProto();
+                if (previous.getForwardCount() == 0) {
+                    continue;
+                }
+                SkipBlockProto.ForwardLink link = previous.getForward(0);
+                if (!link.getTo().equals(blocks.get(i).getProto().getHash())) {
+                    continue;
+                }
+                if (!link.getFrom().equals(previous.getHash()) || !BlockVerifier.checkDigest(link)) {
+                    throw new CothorityCryptoException("invalid forward link to block " + blocks.get(i).getIndex());
+                }
+                indexes.add(i);
+                msgs.add(link.getSignature().getMsg().toByteArray());
+                sigs.add(signature(link));
+            }
+            if (!signerKey.verifyBatch(msgs, sigs)) {
+                for (int j = 0; j < indexes.size(); j++) {
+                    if (!signerKey.verify(msgs.get(j), sigs.get(j))) {
+                        throw new CothorityCryptoException("wrong signature on forward link to block " +
+                                blocks.get(indexes.get(j)).getIndex());
+                    }
+                }
+            }
+            for (int index : indexes) {
+                linked[index] = true;
+            }
+        }
+        return linked;
+    }
+
+    /**
+     * Parses the signature of a forward link, which comes from the network and may not even be a point.
+     */
+    private static SchnorrSig signature(SkipBlockProto.ForwardLink link) throws CothorityCryptoException {
+        try {
+            return new SchnorrSig(link.getSignature().getSig().toByteArray());
+        } catch (IllegalArgumentException e) {
+            throw new CothorityCryptoException("invalid signature on forward link: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetches a block and checks that its hash is its id.
+     */
+    private SkipBlock fetch(SkipblockId id) throws CothorityException {
+        return ConnectionManager.await(rpc.getSkipblockAsync(roster, id));
+    }
+
+    /**
+     * Checks that a block after the genesis block, whose hash has been verified, belongs to the skipchain. The
+     * genesis field is covered by the hash, unlike the index used by getSkipchainId.
+     */
+    private void check(SkipBlock sb) throws CothorityException {
+        if (!sb.getProto().getGenesis().equals(genesis.getProto().getHash())) {
+            throw new CothorityCryptoException("block " + sb.getIndex() + " is from another skipchain");
+        }
+    }
+
+    private static boolean samePublics(SkipBlock a, SkipBlock b) {
+        List<ServerIdentityProto.ServerIdentity> la = a.getProto().getRoster().getListList();
+        List<ServerIdentityProto.ServerIdentity> lb = b.getProto().getRoster().getListList();
+        if (la.size() != lb.size()) {
+            return false;
+        }
+        for (int i = 0; i < la.size(); i++) {
+            if (!la.get(i).getPublic().equals(lb.get(i).getPublic())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,7 +1,10 @@
 package ch.epfl.dedis.lleap;
 
+import ch.epfl.dedis.lib.BlockCache;
+import ch.epfl.dedis.lib.ConnectionManager;
 import ch.epfl.dedis.lib.Roster;
 import ch.epfl.dedis.lib.ServerIdentity;
+import ch.epfl.dedis.lib.Sha256id;
 import ch.epfl.dedis.lib.SkipBlock;
 import ch.epfl.dedis.lib.SkipblockId;
 import ch.epfl.dedis.lib.crypto.Hex;
@@ -12,16 +15,29 @@ import ch.epfl.dedis.proto.LleapProto;
 import ch.epfl.dedis.proto.SkipBlockProto;
 import ch.epfl.dedis.proto.SkipchainProto;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
 
 /**
  * SkipchainRPC offers a reliable, fork-resistant storage of key/value pairs. This class connects to a
@@ -41,7 +57,20 @@ import java.security.SignatureException;
  */
 public class SkipchainRPC {
     private SkipBlock genesis;
-    private static int version = 1;
+    private volatile Roster roster;
+    private volatile BlockCache cache;
+    private volatile BlockVerifier verifier;
+    static int version = 1;
+    // How many requests of a bulk call can be outstanding at the same time.
+    private static int pipelineWindow = 64;
+    // Signature instances are not thread-safe, but expensive enough to keep one per thread.
+    private static final ThreadLocal<Signature> signers = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    });
     private final Logger logger = LoggerFactory.getLogger(SkipchainRPC.class);
 
     /**
@@ -101,17 +130,33 @@ public class SkipchainRPC {
      * @return true only if all nodes are OK, else false.
      */
     public boolean verify() {
-        boolean ok = true;
+        return verifyAsync().join();
+    }
+
+    /**
+     * Asynchronous version of verify. All nodes are contacted in parallel.
+     *
+     * @return a future that completes with true only if all nodes are OK, else false.
+     */
+    public CompletableFuture<Boolean> verifyAsync() {
+        List<CompletableFuture<Boolean>> statuses = new ArrayList<>();
         for (ServerIdentity n : getRoster().getNodes()) {
             logger.info("Testing node {}", n.getAddress());
-            try {
-                n.GetStatus();
-            } catch (CothorityCommunicationException e) {
-                logger.warn("Failing node {}", n.getAddress());
-                ok = false;
-            }
+            statuses.add(n.getStatusAsync().handle((status, e) -> {
+                if (e != null) {
+                    logger.warn("Failing node {}", n.getAddress());
+                    return false;
+                }
+                return true;
+            }));
         }
-        return ok;
+        return CompletableFuture.allOf(statuses.toArray(new CompletableFuture[0])).thenApply(v -> {
+            boolean ok = true;
+            for (CompletableFuture<Boolean> status : statuses) {
+                ok &= status.join();
+            }
+            return ok;
+        });
     }
 
     /**
@@ -128,6 +173,20 @@ public class SkipchainRPC {
      * @throws CothorityCommunicationException
      */
     public void setKeyValue(byte[] key, byte[] value, byte[] signature) throws CothorityCommunicationException {
+        ConnectionManager.await(setKeyValueAsync(key, value, signature));
+    }
+
+    /**
+     * Asynchronous version of setKeyValue.
+     *
+     * @param key       under which key the value will be stored
+     * @param value     the value to store, must be < 1MB
+     * @param signature proofing that the writer is authorized. It should be a signature on
+     *                  (key | value).
+     * @return a future that completes once the key/value pair is stored, or with a
+     * CothorityCommunicationException.
+     */
+    public CompletableFuture<Void> setKeyValueAsync(byte[] key, byte[] value, byte[] signature) {
         LleapProto.SetKeyValue.Builder request =
                 LleapProto.SetKeyValue.newBuilder();
         request.setKey(ByteString.copyFrom(key));
@@ -136,18 +195,18 @@ public class SkipchainRPC {
         request.setVersion(version);
         request.setSignature(ByteString.copyFrom(signature));
 
-        ByteString msg = getRoster().sendMessage("Lleap/SetKeyValue",
-                request.build());
-
-        try {
-            LleapProto.SetKeyValueResponse reply = LleapProto.SetKeyValueResponse.parseFrom(msg);
-            if (reply.getVersion() != version) {
-                throw new CothorityCommunicationException("Version mismatch");
+        return getRoster().sendMessageAsync("Lleap/SetKeyValue",
+                request.build()).thenAccept(msg -> {
+            try {
+                LleapProto.SetKeyValueResponse reply = LleapProto.SetKeyValueResponse.parseFrom(msg);
+                if (reply.getVersion() != version) {
+                    throw ConnectionManager.wrap(new CothorityCommunicationException("Version mismatch"));
+                }
+                logger.trace("Set key/value pair");
+            } catch (InvalidProtocolBufferException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e));
             }
-            logger.info("Set key/value pair");
-        } catch (InvalidProtocolBufferException e) {
-            throw new CothorityCommunicationException(e);
-        }
+        });
     }
 
     /**
@@ -164,21 +223,85 @@ public class SkipchainRPC {
      * @throws CothorityCommunicationException
      */
     public void setKeyValue(byte[] key, byte[] value, PrivateKey privateKey) throws CothorityCommunicationException {
-        try {
-            // Create a signature on the key/value pair
-            Signature signature = Signature.getInstance("SHA256withRSA");
-            signature.initSign(privateKey);
-            byte[] message = new byte[key.length + value.length];
-            System.arraycopy(key, 0, message, 0, key.length);
-            System.arraycopy(value, 0, message, key.length, value.length);
-            signature.update(message);
-
-            // And write using the signature
-            byte[] sig = signature.sign();
-            setKeyValue(key, value, sig);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | SignatureException e) {
-            throw new RuntimeException(e.getMessage());
+        ConnectionManager.await(setKeyValueAsync(key, value, privateKey));
+    }
+
+    /**
+     * Asynchronous version of setKeyValue. The signature is created on the calling thread.
+     *
+     * @param key        under which key the value should be stored
+     * @param value      any slice of bytes, must be < 1MB
+     * @param privateKey will be used to sign the key/value pair
+     * @return a future that completes once the key/value pair is stored, or with a
+     * CothorityCommunicationException.
+     */
+    public CompletableFuture<Void> setKeyValueAsync(byte[] key, byte[] value, PrivateKey privateKey) {
+        return setKeyValueAsync(key, value, sign(key, value, privateKey));
+    }
+
+    /**
+     * setKeyValues stores many key/value pairs at once. The pairs are signed in parallel on all cores and
+     * the requests are pipelined to the roster, so that the signing of one pair overlaps with the storing
+     * of the others.
+     *
+     * <p>
+     * Arrays compare by identity, so a HashMap with byte[] keys doesn't notice a key that is added twice. Use
+     * setKeyValues(List, List, PrivateKey) if the keys are not known to be distinct.
+     *
+     * @param pairs      the key/value pairs to store, each value must be < 1MB
+     * @param privateKey will be used to sign the key/value pairs
+     * @return one result per pair, in the iteration order of pairs. A pair that could not be stored holds
+     * its error, the other pairs are not affected.
+     */
+    public List<KeyValueResult<Void>> setKeyValues(Map<byte[], byte[]> pairs, PrivateKey privateKey) {
+        return setKeyValuesAsync(pairs, privateKey).join();
+    }
+
+    /**
+     * setKeyValues stores many key/value pairs at once, see setKeyValues(Map, PrivateKey).
+     *
+     * @param keys       under which keys the values should be stored
+     * @param values     the values to store, in the same order as the keys
+     * @param privateKey will be used to sign the key/value pairs
+     * @return one result per key, in the order of keys.
+     */
+    public List<KeyValueResult<Void>> setKeyValues(List<byte[]> keys, List<byte[]> values, PrivateKey privateKey) {
+        return setKeyValuesAsync(keys, values, privateKey).join();
+    }
+
+    /**
+     * Asynchronous version of setKeyValues. As byte[] keys compare by identity, the pairs are not checked for
+     * duplicate keys.
+     *
+     * @param pairs      the key/value pairs to store, each value must be < 1MB
+     * @param privateKey will be used to sign the key/value pairs
+     * @return a future that completes with one result per pair once all pairs are done.
+     */
+    public CompletableFuture<List<KeyValueResult<Void>>> setKeyValuesAsync(Map<byte[], byte[]> pairs, PrivateKey privateKey) {
+        List<byte[]> keys = new ArrayList<>(pairs.size());
+        List<byte[]> values = new ArrayList<>(pairs.size());
+        for (Map.Entry<byte[], byte[]> pair : pairs.entrySet()) {
+            keys.add(pair.getKey());
+            values.add(pair.getValue());
         }
+        return setKeyValuesAsync(keys, values, privateKey);
+    }
+
+    /**
+     * Asynchronous version of setKeyValues.
+     *
+     * @param keys       under which keys the values should be stored
+     * @param values     the values to store, in the same order as the keys
+     * @param privateKey will be used to sign the key/value pairs
+     * @return a future that completes with one result per key once all keys are done.
+     */
+    public CompletableFuture<List<KeyValueResult<Void>>> setKeyValuesAsync(List<byte[]> keys, List<byte[]> values, PrivateKey privateKey) {
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException("need as many values as keys");
+        }
+        return pipeline(keys, i -> CompletableFuture
+                .supplyAsync(() -> sign(keys.get(i), values.get(i), privateKey), ForkJoinPool.commonPool())
+                .thenCompose(sig -> setKeyValueAsync(keys.get(i), values.get(i), sig)));
     }
 
     /**
@@ -192,31 +315,94 @@ public class SkipchainRPC {
      *                                         format.
      */
     public KeyValueBlock getKeyValueBlock(byte[] key) throws CothorityCommunicationException {
+        return ConnectionManager.await(getKeyValueBlockAsync(key));
+    }
+
+    /**
+     * Asynchronous version of getKeyValueBlock.
+     *
+     * @param key which key to retrieve
+     * @return a future that completes with the KeyValueBlock, or with a CothorityCommunicationException.
+     */
+    public CompletableFuture<KeyValueBlock> getKeyValueBlockAsync(byte[] key) {
+        BlockCache cache = this.cache;
+        Sha256id id = cache != null ? keyValueId(key) : null;
+        if (id != null) {
+            byte[] cached = cache.get(id);
+            if (cached != null) {
+                try {
+                    // Only verified blocks are put into the cache, and its arrays are never changed.
+                    KeyValueBlock kvb = new KeyValueBlock(parseGetValueResponse(UnsafeByteOperations.unsafeWrap(cached)));
+                    if (isBlockOf(kvb, key)) {
+                        kvb.setVerified(getSkipchainId());
+                        return CompletableFuture.completedFuture(kvb);
+                    }
+                    logger.warn("Cached key/value block holds another key");
+                } catch (CothorityException | IOException e) {
+                    logger.warn("Couldn't parse cached key/value block: {}", e.getMessage());
+                }
+            }
+        }
+
         LleapProto.GetValue.Builder request =
                 LleapProto.GetValue.newBuilder();
         request.setKey(ByteString.copyFrom(key));
         request.setSkipchainid(getSkipchainId().toBS());
         request.setVersion(version);
 
-        ByteString msg = getRoster().sendMessage("Lleap/GetValue",
-                request.build());
+        return getRoster().sendMessageAsync("Lleap/GetValue",
+                request.build()).thenApply(msg -> {
+            LleapProto.GetValueResponse reply;
+            try {
+                reply = parseGetValueResponse(msg);
+                if (reply.getVersion() != version) {
+                    throw ConnectionManager.wrap(new CothorityCommunicationException("Version mismatch"));
+                }
+            } catch (IOException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e.getMessage(), e));
+            }
 
-        LleapProto.GetValueResponse reply;
-        try {
-            reply = LleapProto.GetValueResponse.parseFrom(msg);
-            if (reply.getVersion() != version) {
-                throw new CothorityCommunicationException("Version mismatch");
+            logger.trace("Got key/value block");
+            KeyValueBlock kvb;
+            try {
+                kvb = new KeyValueBlock(reply);
+                // A verified block of another key is still no answer for this key.
+                if (!isBlockOf(kvb, key)) {
+                    throw new CothorityCommunicationException("got the block of another key");
+                }
+            } catch (CothorityException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e.getMessage()));
             }
-        } catch (InvalidProtocolBufferException e) {
-            throw new CothorityCommunicationException(e);
-        }
+            if (id != null) {
+                BlockVerifier verifier = getVerifier();
+                if (verifier != null && verifier.verify(kvb)) {
+                    cache.put(id, msg.toByteArray());
+                }
+            }
+            return kvb;
+        });
+    }
 
-        logger.info("Got key/value block");
-        try {
-            return new KeyValueBlock(reply);
-        } catch (CothorityException e) {
-            throw new CothorityCommunicationException(e.getMessage());
-        }
+    /**
+     * getKeyValueBlocks gets the KeyValueBlocks for many keys at once. The requests are pipelined to the
+     * roster. As for getKeyValueBlock, no verification is done on the blocks.
+     *
+     * @param keys which keys to retrieve
+     * @return one result per key, in the order of keys. A key that could not be retrieved holds its
+     * error, the other keys are not affected.
+     */
+    public List<KeyValueResult<KeyValueBlock>> getKeyValueBlocks(List<byte[]> keys) {
+        return getKeyValueBlocksAsync(keys).join();
+    }
+
+    /**
+     * Asynchronous version of getKeyValueBlocks.
+     *
+     * @param keys which keys to retrieve
+     * @return a future that completes with one result per key once all keys are done.
+     */
+    public CompletableFuture<List<KeyValueResult<KeyValueBlock>>> getKeyValueBlocksAsync(List<byte[]> keys) {
+        return pipeline(keys, i -> getKeyValueBlockAsync(keys.get(i)));
     }
 
     /**
@@ -227,25 +413,179 @@ public class SkipchainRPC {
      * @throws CothorityCommunicationException in case of communication difficulties
      */
     public SkipBlock getSkipblock(Roster roster, SkipblockId id) throws CothorityCommunicationException {
+        return ConnectionManager.await(getSkipblockAsync(roster, id));
+    }
+
+    /**
+     * Asynchronous version of getSkipblock.
+     *
+     * @param roster the roster holding the skipblock
+     * @param id     the id of the skipblock
+     * @return a future that completes with the skipblock, or with a CothorityCommunicationException.
+     */
+    public CompletableFuture<SkipBlock> getSkipblockAsync(Roster roster, SkipblockId id) {
+        BlockCache cache = this.cache;
+        if (cache != null) {
+            byte[] cached = cache.get(id);
+            if (cached != null) {
+                try {
+                    return CompletableFuture.completedFuture(new SkipBlock(cached));
+                } catch (CothorityException e) {
+                    logger.warn("Couldn't parse cached skipblock: {}", e.getMessage());
+                }
+            }
+        }
+
         SkipchainProto.GetSingleBlock request =
                 SkipchainProto.GetSingleBlock.newBuilder().setId(ByteString.copyFrom(id.getId())).build();
 
-        ByteString msg = roster.sendMessage("Skipchain/GetSingleBlock",
-                request);
+        return roster.sendMessageAsync("Skipchain/GetSingleBlock",
+                request).thenApply(msg -> {
+            try {
+                SkipBlock sb = new SkipBlock(SkipBlockProto.SkipBlock.parseFrom(msg));
+                if (!Arrays.equals(sb.getHash(), id.getId()) || !sb.verifyHash()) {
+                    throw ConnectionManager.wrap(new CothorityCommunicationException("got invalid skipblock"));
+                }
+
+                logger.trace("Got the following skipblock: {}", sb.getProto());
 
+                // A block only changes when it gets new forward links, so it is cached once all of its
+                // forward links are there. It gets a forward link for every back link. Unlike the height,
+                // the back links are covered by the hash, so the conode can't make us cache a block
+                // early. The genesis block has no back links and is never cached.
+                int height = sb.getProto().getBacklinksCount();
+                if (cache != null && height > 0 && sb.getProto().getForwardCount() >= height) {
+                    cache.put(id, msg.toByteArray());
+                }
+                return sb;
+            } catch (InvalidProtocolBufferException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e));
+            } catch (CothorityCryptoException e) {
+                throw ConnectionManager.wrap(new CothorityCommunicationException(e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Sets the cache used by getSkipblock and getKeyValueBlock. Key/value blocks are verified before they are
+     * put into the cache, and the blocks returned from the cache don't need to be verified again. A cache with
+     * a BlockStore lets the blocks survive a restart.
+     *
+     * @param cache the cache to use, or null to always ask the conodes.
+     */
+    public void setBlockCache(BlockCache cache) {
+        this.cache = cache;
+    }
+
+    public BlockCache getBlockCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the id under which the key/value block of key is cached. Keys can only be written once, so the
+     * block of a key never changes.
+     */
+    Sha256id keyValueId(byte[] key) {
         try {
-            SkipBlockProto.SkipBlock sb = SkipBlockProto.SkipBlock.parseFrom(msg);
-            //TODO: add verification that the skipblock is valid by hashing and comparing to the id
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(getSkipchainId().getId());
+            digest.update(key);
+            return new Sha256id(digest.digest());
+        } catch (NoSuchAlgorithmException | CothorityCryptoException e) {
+            logger.warn("Cannot cache key/value blocks: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            logger.debug("Got the following skipblock: {}", sb);
-            logger.info("Successfully read skipblock");
+    /**
+     * Checks that kvb is the block of key, as a conode could answer with any other block of the skipchain.
+     */
+    private static boolean isBlockOf(KeyValueBlock kvb, byte[] key) throws CothorityException {
+        ByteString kvKey = kvb.getKeyBS();
+        return kvKey != null && kvKey.equals(ByteString.copyFrom(key));
+    }
 
-            return new SkipBlock(sb);
-        } catch (InvalidProtocolBufferException e) {
-            throw new CothorityCommunicationException(e);
+    /**
+     * Returns the BlockVerifier for the genesis block, or null if the roster of the genesis block is invalid.
+     */
+    private BlockVerifier getVerifier() {
+        if (verifier == null) {
+            try {
+                verifier = new BlockVerifier(genesis);
+            } catch (CothorityException e) {
+                logger.warn("Cannot verify blocks: {}", e.getMessage());
+                return null;
+            }
         }
+        return verifier;
     }
 
+    /**
+     * Parses a GetValueResponse whose fields, especially the data of the skipblock, are views on buf instead of
+     * copies. buf is immutable, so this is safe.
+     */
+    private static LleapProto.GetValueResponse parseGetValueResponse(ByteString buf) throws IOException {
+        CodedInputStream input = buf.newCodedInput();
+        input.enableAliasing(true);
+        return LleapProto.GetValueResponse.parseFrom(input);
+    }
+
+    /**
+     * Signs (key | value) with the SHA256withRSA instance of the current thread.
+     */
+    private static byte[] sign(byte[] key, byte[] value, PrivateKey privateKey) {
+        try {
+            Signature signature = signers.get();
+            signature.initSign(privateKey);
+            signature.update(key);
+            signature.update(value);
+            return signature.sign();
+        } catch (InvalidKeyException | SignatureException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs request for every key, with at most pipelineWindow requests outstanding at the same time. Every
+     * request that finishes starts the next one, so the connections to the roster stay busy without queuing
+     * the whole batch at once.
+     */
+    private static <T> CompletableFuture<List<KeyValueResult<T>>> pipeline(List<byte[]> keys,
+                                                                            IntFunction<CompletableFuture<T>> request) {
+        AtomicReferenceArray<KeyValueResult<T>> results = new AtomicReferenceArray<>(keys.size());
+        AtomicInteger next = new AtomicInteger();
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int l = 0; l < Math.min(pipelineWindow, keys.size()); l++) {
+            lanes.add(nextRequest(keys, request, results, next));
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<KeyValueResult<T>> list = new ArrayList<>(keys.size());
+            for (int i = 0; i < results.length(); i++) {
+                list.add(results.get(i));
+            }
+            return list;
+        });
+    }
+
+    private static <T> CompletableFuture<Void> nextRequest(List<byte[]> keys, IntFunction<CompletableFuture<T>> request,
+                                                           AtomicReferenceArray<KeyValueResult<T>> results,
+                                                           AtomicInteger next) {
+        int i = next.getAndIncrement();
+        if (i >= keys.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<T> reply;
+        try {
+            reply = request.apply(i);
+        } catch (RuntimeException e) {
+            reply = ConnectionManager.failed(e);
+        }
+        // Async, so that requests failing right away don't recurse down the stack.
+        return reply.handle((result, e) -> {
+            results.set(i, new KeyValueResult<>(keys.get(i), result, e));
+            return null;
+        }).thenComposeAsync(v -> nextRequest(keys, request, results, next));
+    }
 
     /**
      * getGenesis returns the genesis block of the skipchain.
@@ -257,16 +597,20 @@ public class SkipchainRPC {
     }
 
     /**
-     * getRoster reads the roster from the genesis block.
+     * getRoster reads the roster from the genesis block. The roster is only parsed once, so that its routing
+     * strategy can keep track of the nodes across requests.
      *
      * @return roster of the genesis block, or null if there was an error.
      */
     public Roster getRoster() {
-        try {
-            return genesis.getRoster();
-        } catch (CothorityException e) {
-            return null;
+        if (roster == null) {
+            try {
+                roster = genesis.getRoster();
+            } catch (CothorityException e) {
+                return null;
+            }
         }
+        return roster;
     }
 
     /**
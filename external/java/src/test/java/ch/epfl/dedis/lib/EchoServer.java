@@ -0,0 +1,138 @@
+package ch.epfl.dedis.lib;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EchoServer is a local websocket server that behaves like a conode: it answers the requests of a connection in
+ * order and closes the connection with the error as reason if it refuses a request. It refuses messages containing
+ * "fail" and returns all other messages, optionally after a delay. After the message "hang" it doesn't answer anything on
+ * that connection anymore, like a conode whose connection silently died.
+ */
+class EchoServer extends WebSocketServer {
+    final AtomicInteger opened = new AtomicInteger();
+    final AtomicInteger received = new AtomicInteger();
+    volatile long delay = 0;
+    private final int port;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor();
+    private final Set<WebSocket> hanging = ConcurrentHashMap.newKeySet();
+
+    private EchoServer(int port) {
+        super(new InetSocketAddress("localhost", port));
+        this.port = port;
+    }
+
+    /**
+     * Starts an EchoServer on a free port and waits for it to accept connections.
+     */
+    static EchoServer startNew() throws InterruptedException, IOException {
+        EchoServer server = new EchoServer(freePort());
+        server.start();
+        server.started.await();
+        return server;
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * @return the websocket address of the given service path.
+     */
+    URI address(String path) throws URISyntaxException {
+        return new URI("ws://localhost:" + port + "/" + path);
+    }
+
+    /**
+     * @return a ServerIdentity pointing to this server, which uses the port below the websocket port.
+     */
+    ServerIdentity serverIdentity() throws URISyntaxException {
+        return new ServerIdentity(new URI("tcp://localhost:" + (port - 1)),
+                "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+    }
+
+    void shutdown() throws IOException, InterruptedException {
+        delayed.shutdownNow();
+        // Don't wait for the close handshake of connections with pending replies.
+        stop(1000);
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        opened.incrementAndGet();
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        received.incrementAndGet();
+        byte[] msg = new byte[message.remaining()];
+        message.get(msg);
+        if (new String(msg).contains("fail")) {
+            conn.close(4000, "refused");
+            return;
+        }
+        if (new String(msg).equals("hang")) {
+            hanging.add(conn);
+        }
+        if (hanging.contains(conn)) {
+            return;
+        }
+        if (delay > 0) {
+            delayed.schedule(() -> send(conn, msg), delay, TimeUnit.MILLISECONDS);
+        } else {
+            send(conn, msg);
+        }
+    }
+
+    private void send(WebSocket conn, byte[] msg) {
+        if (conn.isOpen()) {
+            conn.send(msg);
+            delayed.schedule(() -> flush(conn), 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Repeats the write demand until the reply left, as Java-WebSocket 1.3.4 can lose it, see FakeConode.
+     */
+    private void flush(WebSocket conn) {
+        if (conn.hasBufferedData() && conn.isOpen()) {
+            onWriteDemand(conn);
+            delayed.schedule(() -> flush(conn), 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
@@ -0,0 +1,126 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import ch.epfl.dedis.lib.exception.CothorityException;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the heap tier of BlockCache and the BlockStore behind it.
+ */
+public class TestBlockCache {
+    private static Sha256id id(int i) throws CothorityCryptoException {
+        byte[] id = new byte[Sha256id.length];
+        id[0] = (byte) i;
+        id[1] = (byte) (i >> 8);
+        return new Sha256id(id);
+    }
+
+    private static byte[] block(int i, int length) {
+        byte[] block = new byte[length];
+        for (int b = 0; b < length; b++) {
+            block[b] = (byte) (i + b);
+        }
+        return block;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        BlockCache cache = new BlockCache(300);
+        cache.put(id(1), block(1, 100));
+        cache.put(id(2), block(2, 100));
+        cache.put(id(3), block(3, 100));
+        assertNotNull(cache.get(id(1)));
+        cache.put(id(4), block(4, 100));
+
+        assertNull(cache.get(id(2)));
+        assertArrayEquals(block(1, 100), cache.get(id(1)));
+        assertArrayEquals(block(3, 100), cache.get(id(3)));
+        assertArrayEquals(block(4, 100), cache.get(id(4)));
+        assertEquals(300, cache.getBytes());
+        assertEquals(1, cache.getMisses());
+
+        // Too big for the heap at all.
+        cache.put(id(5), block(5, 301));
+        assertNull(cache.get(id(5)));
+        assertEquals(300, cache.getBytes());
+    }
+
+    @Test
+    public void storeSurvivesRestart() throws Exception {
+        File dir = Files.createTempDirectory("blockstore").toFile();
+        BlockStore store = new BlockStore(dir, 1000);
+        BlockCache cache = new BlockCache(200, store);
+        for (int i = 0; i < 20; i++) {
+            cache.put(id(i), block(i, 10 + 30 * i));
+        }
+        // Evicted from the heap, but read back from the store.
+        assertArrayEquals(block(0, 10), cache.get(id(0)));
+        store.close();
+
+        BlockStore reopened = new BlockStore(dir, 1000);
+        assertEquals(20, reopened.size());
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(block(i, 10 + 30 * i), reopened.get(id(i)));
+        }
+        reopened.put(id(20), block(20, 1000));
+        assertArrayEquals(block(20, 1000), reopened.get(id(20)));
+        assertThrows(CothorityException.class, () -> reopened.put(id(21), block(21, 1001)));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTornIndex() throws Exception {
+        File dir = Files.createTempDirectory("blockstore").toFile();
+        BlockStore store = new BlockStore(dir, 1000);
+        store.put(id(1), block(1, 10));
+        store.put(id(2), block(2, 10));
+        store.close();
+
+        // A crash while writing the third entry of the index.
+        try (RandomAccessFile index = new RandomAccessFile(new File(dir, "blocks.index"), "rw")) {
+            index.seek(index.length());
+            index.write(new byte[10]);
+        }
+        store = new BlockStore(dir, 1000);
+        assertEquals(2, store.size());
+        store.put(id(3), block(3, 10));
+        store.close();
+
+        store = new BlockStore(dir, 1000);
+        assertEquals(3, store.size());
+        assertArrayEquals(block(3, 10), store.get(id(3)));
+        store.close();
+    }
+
+    @Test
+    public void dropsCorruptedRecord() throws Exception {
+        File dir = Files.createTempDirectory("blockstore").toFile();
+        BlockStore store = new BlockStore(dir, 1000);
+        store.put(id(1), block(1, 10));
+        store.put(id(2), block(2, 10));
+        store.close();
+
+        // A crash before the mapped data of the second record got to disk.
+        try (RandomAccessFile data = new RandomAccessFile(new File(dir, "blocks.data"), "rw")) {
+            data.seek(10);
+            data.write(new byte[10]);
+        }
+        store = new BlockStore(dir, 1000);
+        assertArrayEquals(block(1, 10), store.get(id(1)));
+        assertNull(store.get(id(2)));
+        assertFalse(store.contains(id(2)));
+        store.put(id(2), block(2, 10));
+        assertArrayEquals(block(2, 10), store.get(id(2)));
+        store.close();
+
+        store = new BlockStore(dir, 1000);
+        assertArrayEquals(block(2, 10), store.get(id(2)));
+        store.close();
+    }
+}
@@ -0,0 +1,134 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityRefusedException;
+import ch.epfl.dedis.lib.exception.CothorityUnreachableException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ConnectionManager against a local websocket server that behaves like a conode.
+ */
+public class TestConnectionManager {
+    private static EchoServer server;
+    private static URI address;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        server = EchoServer.startNew();
+        address = server.address("Echo/Request");
+    }
+
+    @AfterAll
+    public static void closeAll() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Like ConnectionManager.await, but fails instead of hanging if the future never completes.
+     */
+    private static byte[] await(CompletableFuture<byte[]> future) throws Exception {
+        try {
+            return future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        ConnectionManager cm = new ConnectionManager(1, Runnable::run);
+        int before = server.opened.get();
+        for (int i = 0; i < 10; i++) {
+            byte[] msg = ("msg" + i).getBytes();
+            assertArrayEquals(msg, await(cm.sendMessage(address, msg)));
+        }
+        assertEquals(before + 1, server.opened.get());
+        cm.close();
+    }
+
+    @Test
+    public void pipelining() throws Exception {
+        ConnectionManager cm = new ConnectionManager();
+        List<CompletableFuture<byte[]>> replies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            replies.add(cm.sendMessage(address, ("msg" + i).getBytes()));
+        }
+        for (int i = 0; i < replies.size(); i++) {
+            assertArrayEquals(("msg" + i).getBytes(), await(replies.get(i)));
+        }
+        cm.close();
+    }
+
+    @Test
+    public void refusedRequest() throws Exception {
+        ConnectionManager cm = new ConnectionManager(1, Runnable::run);
+        CompletableFuture<byte[]> before = cm.sendMessage(address, "before".getBytes());
+        CompletableFuture<byte[]> refused = cm.sendMessage(address, "fail".getBytes());
+        CompletableFuture<byte[]> after = cm.sendMessage(address, "after".getBytes());
+
+        assertArrayEquals("before".getBytes(), await(before));
+        CothorityCommunicationException e = assertThrows(CothorityRefusedException.class,
+                () -> await(refused));
+        assertEquals("refused", e.getMessage());
+        assertArrayEquals("after".getBytes(), await(after));
+        cm.close();
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        ConnectionManager cm = new ConnectionManager(1, Runnable::run, 500);
+        int before = server.opened.get();
+        CompletableFuture<byte[]> hanging = cm.sendMessage(address, "hang".getBytes());
+        CompletableFuture<byte[]> behind = cm.sendMessage(address, "behind".getBytes());
+
+        CothorityCommunicationException e = assertThrows(CothorityCommunicationException.class,
+                () -> await(hanging));
+        assertTrue(e.getMessage().contains("within 500ms"), e.getMessage());
+        assertThrows(CothorityCommunicationException.class, () -> await(behind));
+
+        // The dead connection got closed and the next request uses a new one.
+        assertArrayEquals("after".getBytes(), await(cm.sendMessage(address, "after".getBytes())));
+        assertEquals(before + 2, server.opened.get());
+        cm.close();
+    }
+
+    @Test
+    public void noHandshake() throws Exception {
+        // The kernel accepts the TCP connection, but nobody ever answers the handshake.
+        try (ServerSocket silent = new ServerSocket(0)) {
+            ConnectionManager cm = new ConnectionManager(1, Runnable::run, 500);
+            URI silentAddress = new URI("ws://localhost:" + silent.getLocalPort() + "/Echo/Request");
+            CompletableFuture<byte[]> first = cm.sendMessage(silentAddress, "first".getBytes());
+            CompletableFuture<byte[]> second = cm.sendMessage(silentAddress, "second".getBytes());
+
+            CothorityCommunicationException e = assertThrows(CothorityUnreachableException.class,
+                    () -> await(first));
+            assertTrue(e.getMessage().contains("within 500ms"), e.getMessage());
+            assertThrows(CothorityUnreachableException.class, () -> await(second));
+            cm.close();
+        }
+    }
+
+    @Test
+    public void unreachable() throws Exception {
+        int port = EchoServer.freePort();
+        ConnectionManager cm = new ConnectionManager();
+        assertThrows(CothorityCommunicationException.class,
+                () -> await(cm.sendMessage(new URI("ws://localhost:" + port + "/Echo/Request"), "msg".getBytes())));
+    }
+}
@@ -0,0 +1,159 @@
+package ch.epfl.dedis.lib;
+
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.lib.exception.CothorityRefusedException;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.SkipchainProto;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the routing, failover and hedging of Roster.sendMessage against local echo servers.
+ */
+public class TestRoster {
+    private static EchoServer fast;
+    private static EchoServer slow;
+    private static ServerIdentity unreachable;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        fast = EchoServer.startNew();
+        slow = EchoServer.startNew();
+        slow.delay = 2000;
+        unreachable = new ServerIdentity(new URI("tcp://localhost:" + (EchoServer.freePort() - 1)),
+                "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+    }
+
+    @AfterAll
+    public static void closeAll() throws Exception {
+        fast.shutdown();
+        slow.shutdown();
+    }
+
+    @Test
+    public void roundRobin() throws Exception {
+        ServerIdentity a = fast.serverIdentity();
+        ServerIdentity b = slow.serverIdentity();
+        RoutingStrategy rr = new RoutingStrategy.RoundRobin();
+        List<ServerIdentity> nodes = Arrays.asList(a, b);
+        assertSame(a, rr.order(nodes).get(0));
+        assertSame(b, rr.order(nodes).get(0));
+        assertSame(a, rr.order(nodes).get(0));
+    }
+
+    @Test
+    public void latencyAware() throws Exception {
+        ServerIdentity a = new ServerIdentity(new URI("tcp://latency-a:7000"), "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+        ServerIdentity b = new ServerIdentity(new URI("tcp://latency-b:7000"), "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+        a.getStats().done(a.getStats().start() - 50000000L, true);
+        b.getStats().done(b.getStats().start() - 5000000L, true);
+        RoutingStrategy la = new RoutingStrategy.LatencyAware();
+        for (int i = 0; i < 4; i++) {
+            assertSame(b, la.order(Arrays.asList(a, b)).get(0));
+        }
+    }
+
+    @Test
+    public void leastOutstanding() throws Exception {
+        ServerIdentity a = new ServerIdentity(new URI("tcp://outstanding-a:7000"), "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+        ServerIdentity b = new ServerIdentity(new URI("tcp://outstanding-b:7000"), "a863cf64422ab15f405369134cd057f99e2b40cb45afe7848dde11f34853f708");
+        long start = a.getStats().start();
+        RoutingStrategy lo = new RoutingStrategy.LeastOutstanding();
+        for (int i = 0; i < 4; i++) {
+            assertSame(b, lo.order(Arrays.asList(a, b)).get(0));
+        }
+        a.getStats().done(start, true);
+    }
+
+    @Test
+    public void failover() throws Exception {
+        Roster roster = new Roster(Arrays.asList(unreachable, fast.serverIdentity()));
+        roster.setRoutingStrategy(new RoutingStrategy.RoundRobin());
+        for (int i = 0; i < 4; i++) {
+            // Not idempotent, but the request never reached the first node.
+            LleapProto.GetValue msg = LleapProto.GetValue.newBuilder().setVersion(1)
+                    .setSkipchainid(ByteString.copyFromUtf8("id")).setKey(ByteString.copyFromUtf8("key" + i)).build();
+            assertEquals(msg.toByteString(), roster.sendMessage("Lleap/SetKeyValue", msg));
+        }
+    }
+
+    @Test
+    public void allFailing() throws Exception {
+        Roster roster = new Roster(Arrays.asList(unreachable));
+        SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                .setId(ByteString.copyFromUtf8("block")).build();
+        assertThrows(CothorityCommunicationException.class, () -> roster.sendMessage("Skipchain/GetSingleBlock", msg));
+    }
+
+    @Test
+    public void refused() throws Exception {
+        EchoServer other = EchoServer.startNew();
+        try {
+            Roster roster = new Roster(Arrays.asList(fast.serverIdentity(), other.serverIdentity()));
+            roster.setHedgePercentile(0);
+            int before = fast.received.get();
+            SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                    .setId(ByteString.copyFromUtf8("fail")).build();
+            // Idempotent, but the other node would refuse it as well.
+            assertThrows(CothorityRefusedException.class, () -> roster.sendMessage("Skipchain/GetSingleBlock", msg));
+            assertEquals(before + 1, fast.received.get() + other.received.get());
+            // Neither node is avoided because of the refusal.
+            assertTrue(fast.serverIdentity().getStats().getLatency() < 1e9);
+            assertTrue(other.serverIdentity().getStats().getLatency() < 1e9);
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void hedging() throws Exception {
+        EchoServer stalling = EchoServer.startNew();
+        try {
+            // Fill the latency window of the node with fast requests.
+            Roster stallingOnly = new Roster(Arrays.asList(stalling.serverIdentity()));
+            for (int i = 0; i < 32; i++) {
+                SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                        .setId(ByteString.copyFromUtf8("block" + i)).build();
+                stallingOnly.sendMessage("Skipchain/GetSingleBlock", msg);
+            }
+
+            // The node is tried first and now answers only after two seconds.
+            stalling.delay = 2000;
+            Roster roster = new Roster(Arrays.asList(stalling.serverIdentity(), fast.serverIdentity()));
+            roster.setRoutingStrategy(new RoutingStrategy.RoundRobin());
+            SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                    .setId(ByteString.copyFromUtf8("hedged")).build();
+            long start = System.nanoTime();
+            assertEquals(msg.toByteString(), roster.sendMessage("Skipchain/GetSingleBlock", msg));
+            assertTrue(System.nanoTime() - start < 1000000000L);
+        } finally {
+            stalling.shutdown();
+        }
+    }
+
+    @Test
+    public void hedgingPerNode() throws Exception {
+        // The fast node being fast says nothing about the slow node, which is never measured before.
+        Roster fastOnly = new Roster(Arrays.asList(fast.serverIdentity()));
+        for (int i = 0; i < 32; i++) {
+            SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                    .setId(ByteString.copyFromUtf8("block" + i)).build();
+            fastOnly.sendMessage("Skipchain/GetSingleBlock", msg);
+        }
+        int before = fast.received.get();
+        Roster roster = new Roster(Arrays.asList(slow.serverIdentity(), fast.serverIdentity()));
+        roster.setRoutingStrategy(new RoutingStrategy.RoundRobin());
+        SkipchainProto.GetSingleBlock msg = SkipchainProto.GetSingleBlock.newBuilder()
+                .setId(ByteString.copyFromUtf8("not hedged")).build();
+        assertEquals(msg.toByteString(), roster.sendMessage("Skipchain/GetSingleBlock", msg));
+        assertEquals(before, fast.received.get());
+    }
+}
@@ -0,0 +1,182 @@
+package ch.epfl.dedis.lib.crypto;
+
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the CBC encryption of values and the chunked encryption of streams and buffers.
+ */
+public class TestEncryption {
+    private final byte[] keyMaterial = new Encryption.keyIv(16).getKeyMaterial();
+    private static final int chunk = Encryption.chunkLength;
+    private static final int[] lengths = {0, 1, 1000, chunk - 1, chunk, chunk + 1, 3 * chunk, 10 * chunk + 17};
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private byte[] encrypt(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream enc = Encryption.encryptStream(out, keyMaterial)) {
+            // uneven writes, so that they don't line up with the chunks
+            int off = 0;
+            while (off < data.length) {
+                int n = Math.min(data.length - off, 7777);
+                enc.write(data, off, n);
+                off += n;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] enc) throws Exception {
+        InputStream in = Encryption.decryptStream(new ByteArrayInputStream(enc), keyMaterial);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[5000];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] b = new byte[buf.remaining()];
+        buf.duplicate().get(b);
+        return b;
+    }
+
+    @Test
+    public void encryptData() throws Exception {
+        byte[] data = "some secret data".getBytes();
+        byte[] enc = Encryption.encryptData(data, keyMaterial);
+        assertArrayEquals(data, Encryption.decryptData(enc, keyMaterial));
+
+        // The key of the key material is used, not only its iv.
+        byte[] other = keyMaterial.clone();
+        other[Encryption.ivLength] ^= 1;
+        assertFalse(Arrays.equals(enc, Encryption.encryptData(data, other)));
+    }
+
+    @Test
+    public void decryptLegacyData() throws Exception {
+        // Data encrypted before the key was copied into the keyIv used an all-zero key.
+        Encryption.keyIv key = new Encryption.keyIv(keyMaterial);
+        Cipher cipher = Cipher.getInstance(Encryption.algo);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], Encryption.algoKey),
+                new IvParameterSpec(key.iv));
+        byte[] data = "written by an old version".getBytes();
+        byte[] enc = cipher.doFinal(data);
+        assertArrayEquals(data, Encryption.decryptLegacyData(enc, keyMaterial));
+
+        // Data in the current format is never decrypted with the old key and vice versa. CBC can't tell a wrong key
+        // apart in all cases, but it must never return the plaintext.
+        byte[] current = Encryption.encryptData(data, keyMaterial);
+        assertFalse(Arrays.equals(data, decryptOrNull(enc)));
+        assertFalse(Arrays.equals(data, legacyOrNull(current)));
+    }
+
+    private byte[] decryptOrNull(byte[] enc) {
+        try {
+            return Encryption.decryptData(enc, keyMaterial);
+        } catch (CothorityCryptoException e) {
+            return null;
+        }
+    }
+
+    private byte[] legacyOrNull(byte[] enc) {
+        try {
+            return Encryption.decryptLegacyData(enc, keyMaterial);
+        } catch (CothorityCryptoException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void streams() throws Exception {
+        for (int length : lengths) {
+            byte[] data = data(length);
+            byte[] enc = encrypt(data);
+            assertEquals(ChunkCipher.headerLength + length +
+                    Math.max(1, (length + chunk - 1) / chunk) * ChunkCipher.tagLength, enc.length);
+            assertArrayEquals(data, decrypt(enc), "length " + length);
+        }
+    }
+
+    @Test
+    public void buffers() throws Exception {
+        for (int length : lengths) {
+            byte[] data = data(length);
+            ByteBuffer plain = ByteBuffer.allocateDirect(length);
+            plain.put(data).flip();
+            ByteBuffer enc = Encryption.encryptBuffer(plain, keyMaterial);
+            assertEquals(0, plain.position());
+            assertTrue(enc.isDirect());
+            assertArrayEquals(data, bytes(Encryption.decryptBuffer(enc, keyMaterial)), "length " + length);
+
+            // Both formats are the same.
+            assertArrayEquals(data, decrypt(bytes(enc)));
+            assertArrayEquals(data, bytes(Encryption.decryptBuffer(ByteBuffer.wrap(encrypt(data)), keyMaterial)));
+        }
+    }
+
+    @Test
+    public void tampered() throws Exception {
+        byte[] enc = encrypt(data(3 * chunk));
+        // the version, the chunk length, the salt, the first chunk, a later chunk and the last tag
+        int[] positions = {0, 3, ChunkCipher.headerLength - 1, ChunkCipher.headerLength, chunk + 100, enc.length - 1};
+        for (int pos : positions) {
+            byte[] bad = enc.clone();
+            bad[pos] ^= 1;
+            assertThrows(Exception.class, () -> decrypt(bad), "position " + pos);
+            assertThrows(CothorityCryptoException.class, () -> Encryption.decryptBuffer(ByteBuffer.wrap(bad),
+                    keyMaterial), "position " + pos);
+        }
+
+        byte[] otherKey = new Encryption.keyIv(16).getKeyMaterial();
+        assertThrows(CothorityCryptoException.class, () -> Encryption.decryptBuffer(ByteBuffer.wrap(enc),
+                otherKey));
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        byte[] enc = encrypt(data(3 * chunk));
+        int encChunk = chunk + ChunkCipher.tagLength;
+        // dropping whole chunks at the end, or a part of the last chunk
+        for (int length : new int[]{ChunkCipher.headerLength, ChunkCipher.headerLength + encChunk,
+                ChunkCipher.headerLength + 2 * encChunk, enc.length - 1, 5}) {
+            byte[] cut = Arrays.copyOf(enc, length);
+            assertThrows(Exception.class, () -> decrypt(cut), "length " + length);
+            assertThrows(CothorityCryptoException.class, () -> Encryption.decryptBuffer(ByteBuffer.wrap(cut),
+                    keyMaterial), "length " + length);
+        }
+    }
+
+    @Test
+    public void reordered() throws Exception {
+        byte[] enc = encrypt(data(3 * chunk));
+        int encChunk = chunk + ChunkCipher.tagLength;
+        byte[] swapped = enc.clone();
+        System.arraycopy(enc, ChunkCipher.headerLength, swapped, ChunkCipher.headerLength + encChunk, encChunk);
+        System.arraycopy(enc, ChunkCipher.headerLength + encChunk, swapped, ChunkCipher.headerLength, encChunk);
+        assertThrows(IOException.class, () -> decrypt(swapped));
+        assertThrows(CothorityCryptoException.class, () -> Encryption.decryptBuffer(ByteBuffer.wrap(swapped),
+                keyMaterial));
+    }
+}
@@ -0,0 +1,249 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.Roster;
+import ch.epfl.dedis.lib.ServerIdentity;
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.lib.crypto.Hex;
+import ch.epfl.dedis.lib.crypto.KeyPair;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.proto.IdentityProto;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.RosterProto;
+import ch.epfl.dedis.proto.SkipBlockProto;
+import com.google.protobuf.ByteString;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FakeChain creates a skipchain with a single-node roster whose private key is known, so that correctly signed
+ * blocks can be created without a running conode.
+ * <p>
+ * Blocks can either be created on their own with getValue, or appended to the chain with append, which links them
+ * like the skipchain service does: with back links and forward links on up to maxHeight levels.
+ */
+public class FakeChain {
+    final KeyPair kp;
+    final Roster roster;
+    final SkipBlockProto.SkipBlock genesis;
+    private final URI address;
+    private final int base;
+    private final int maxHeight;
+    // the roster of new blocks and its private key
+    private KeyPair currentKey;
+    private RosterProto.Roster currentRoster;
+    // the appended blocks with their forward links, and the private key of their roster
+    private final List<SkipBlockProto.SkipBlock> blocks = new ArrayList<>();
+    private final List<KeyPair> keys = new ArrayList<>();
+    private final Map<ByteString, Integer> indexes = new HashMap<>();
+
+    public FakeChain() throws Exception {
+        this(new URI("tcp://localhost:7002"));
+    }
+
+    public FakeChain(URI address) throws Exception {
+        this(address, 2, 1);
+    }
+
+    public FakeChain(URI address, int base, int maxHeight) throws Exception {
+        this.address = address;
+        this.base = base;
+        this.maxHeight = maxHeight;
+        kp = new KeyPair();
+        roster = roster(kp);
+        currentKey = kp;
+        currentRoster = roster.getProto();
+        genesis = block(0, maxHeight, new ArrayList<>(), ByteString.EMPTY, ByteString.EMPTY,
+                IdentityProto.Data.newBuilder().setThreshold(1).build());
+        add(genesis);
+    }
+
+    public SkipBlock getGenesis() {
+        return new SkipBlock(genesis);
+    }
+
+    /**
+     * Returns a block holding the key/value pair at the given index, together with a forward link pointing to it.
+     */
+    public LleapProto.GetValueResponse getValue(int index, byte[] key, byte[] value) throws Exception {
+        return getValue(index, key, value, "signature".getBytes());
+    }
+
+    /**
+     * Same as getValue, with the signature of the writer on (key | value).
+     */
+    public LleapProto.GetValueResponse getValue(int index, byte[] key, byte[] value, byte[] sig) throws Exception {
+        List<ByteString> backLinks = new ArrayList<>();
+        backLinks.add(genesis.getHash());
+        SkipBlockProto.SkipBlock sb = block(index, 1, backLinks, genesis.getHash(), genesis.getHash(),
+                keyValue(key, value, sig));
+        return LleapProto.GetValueResponse.newBuilder()
+                .setVersion(1)
+                .setSkipblock(sb)
+                .setForwardlink(forwardLink(genesis.getHash(), sb.getHash()))
+                .build();
+    }
+
+    public Roster getRoster() {
+        return roster;
+    }
+
+    /**
+     * Appends a block holding the key/value pair to the chain and adds the forward links pointing to it, signed
+     * by the rosters of the blocks they start from.
+     *
+     * @return the key/value block, with the forward link of the block before it.
+     */
+    public synchronized LleapProto.GetValueResponse append(byte[] key, byte[] value, byte[] sig) throws Exception {
+        int index = blocks.size();
+        int height = 1;
+        while (height < maxHeight && index % pow(height) == 0) {
+            height++;
+        }
+        List<ByteString> backLinks = new ArrayList<>();
+        for (int k = 0; k < height; k++) {
+            backLinks.add(blocks.get(index - pow(k)).getHash());
+        }
+        SkipBlockProto.SkipBlock sb = block(index, height, backLinks, genesis.getHash(), genesis.getHash(),
+                keyValue(key, value, sig));
+        for (int k = 0; k < height; k++) {
+            int from = index - pow(k);
+            SkipBlockProto.SkipBlock fromBlock = blocks.get(from);
+            RosterProto.Roster newRoster = keys.get(from) == currentKey ? null : currentRoster;
+            SkipBlockProto.ForwardLink fl = forwardLink(fromBlock.getHash(), sb.getHash(), newRoster, keys.get(from));
+            blocks.set(from, fromBlock.toBuilder().addForward(fl).build());
+        }
+        add(sb);
+        return LleapProto.GetValueResponse.newBuilder()
+                .setVersion(1)
+                .setSkipblock(sb)
+                .setForwardlink(blocks.get(index - 1).getForward(0))
+                .build();
+    }
+
+    /**
+     * Returns the current version of an appended block, with all of its forward links, or null if there is no
+     * such block.
+     */
+    public synchronized SkipBlockProto.SkipBlock getBlock(ByteString id) {
+        Integer index = indexes.get(id);
+        return index == null ? null : blocks.get(index);
+    }
+
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Blocks appended from now on have a new roster with a new private key.
+     */
+    public synchronized void changeRoster() throws Exception {
+        currentKey = new KeyPair();
+        currentRoster = roster(currentKey).getProto();
+    }
+
+    /**
+     * Replaces the forward link at level 0 of an appended block with one signed by a key outside of the roster.
+     */
+    synchronized void forgeForwardLink(int index) throws Exception {
+        SkipBlockProto.SkipBlock sb = blocks.get(index);
+        SkipBlockProto.ForwardLink fl = sb.getForward(0);
+        blocks.set(index, sb.toBuilder().setForward(0,
+                forwardLink(fl.getFrom(), fl.getTo(), null, new KeyPair())).build());
+    }
+
+    /**
+     * Replaces the signature of the forward link at level 0 of an appended block.
+     */
+    synchronized void setSignature(int index, byte[] sig) {
+        SkipBlockProto.SkipBlock sb = blocks.get(index);
+        SkipBlockProto.ForwardLink fl = sb.getForward(0);
+        blocks.set(index, sb.toBuilder().setForward(0, fl.toBuilder().setSignature(
+                fl.getSignature().toBuilder().setSig(ByteString.copyFrom(sig)))).build());
+    }
+
+    /**
+     * Changes the index of an appended block, which is not covered by its hash.
+     */
+    synchronized void setIndex(int block, int index) {
+        blocks.set(block, blocks.get(block).toBuilder().setIndex(index * 2).build());
+    }
+
+    SkipBlockProto.ForwardLink forwardLink(ByteString from, ByteString to) throws Exception {
+        return forwardLink(from, to, null, kp);
+    }
+
+    private SkipBlockProto.ForwardLink forwardLink(ByteString from, ByteString to, RosterProto.Roster newRoster,
+                                                   KeyPair signer) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(from.toByteArray());
+        digest.update(to.toByteArray());
+        if (newRoster != null) {
+            digest.update(newRoster.getId().toByteArray());
+        }
+        byte[] msg = digest.digest();
+        SkipBlockProto.ForwardLink.Builder fl = SkipBlockProto.ForwardLink.newBuilder()
+                .setFrom(from)
+                .setTo(to)
+                .setSignature(SkipBlockProto.FinalSignature.newBuilder()
+                        .setMsg(ByteString.copyFrom(msg))
+                        .setSig(ByteString.copyFrom(new SchnorrSig(msg, signer.Scalar).toBytes())));
+        if (newRoster != null) {
+            fl.setNewRoster(newRoster);
+        }
+        return fl.build();
+    }
+
+    private void add(SkipBlockProto.SkipBlock sb) {
+        indexes.put(sb.getHash(), blocks.size());
+        blocks.add(sb);
+        keys.add(currentKey);
+    }
+
+    private int pow(int k) {
+        int p = 1;
+        for (int i = 0; i < k; i++) {
+            p *= base;
+        }
+        return p;
+    }
+
+    private Roster roster(KeyPair key) throws Exception {
+        return new Roster(Arrays.asList(new ServerIdentity(address, Hex.printHexBinary(key.Point.toBytes()))));
+    }
+
+    private static IdentityProto.Data keyValue(byte[] key, byte[] value, byte[] sig) {
+        return IdentityProto.Data.newBuilder()
+                .setThreshold(1)
+                .putStorage("newkey", ByteString.copyFrom(key))
+                .putStorage("newvalue", ByteString.copyFrom(value))
+                .putStorage("newsig", ByteString.copyFrom(sig))
+                .putStorage("timestamp", ByteString.copyFromUtf8("2018.01.01"))
+                .build();
+    }
+
+    private SkipBlockProto.SkipBlock block(int index, int height, List<ByteString> backLinks, ByteString parent,
+                                           ByteString genesisId, IdentityProto.Data data) throws Exception {
+        // CISC data starts after 16 bytes of its own marshalling.
+        ByteString blockData = ByteString.copyFrom(new byte[16]).concat(data.toByteString());
+        // protobuf's zigzag encoding
+        SkipBlockProto.SkipBlock.Builder sb = SkipBlockProto.SkipBlock.newBuilder()
+                .setIndex(index * 2)
+                .setHeight(height * 2)
+                .setMaxHeight(maxHeight * 2)
+                .setBaseHeight(base * 2)
+                .addAllBacklinks(backLinks)
+                .setParent(parent)
+                .setGenesis(genesisId)
+                .setData(blockData)
+                .setRoster(currentRoster)
+                .setHash(ByteString.EMPTY);
+        byte[] hash = new SkipBlock(sb.build()).calculateHash();
+        return sb.setHash(ByteString.copyFrom(hash)).build();
+    }
+}
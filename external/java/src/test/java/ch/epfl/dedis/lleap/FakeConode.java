@@ -0,0 +1,246 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.Roster;
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.SkipBlockProto;
+import ch.epfl.dedis.proto.SkipchainProto;
+import ch.epfl.dedis.proto.StatusProto;
+import com.google.protobuf.ByteString;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FakeConode is a local websocket server that stands in for a conode running the lleap service, so that the
+ * whole SkipchainRPC stack can be tested and benchmarked without a network. It answers Lleap/*,
+ * Skipchain/GetSingleBlock and Status/Request with blocks of a FakeChain, signed by its roster of one node.
+ * <p>
+ * Like a conode, it refuses a request by closing the connection with the error as reason. A latency can be set to
+ * delay the replies like a remote conode.
+ */
+public class FakeConode extends WebSocketServer {
+    private static final int version = 1;
+
+    final FakeChain chain;
+    private final PublicKey writer;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fake conode flusher");
+        t.setDaemon(true);
+        return t;
+    });
+    // serialized GetValueResponse by key
+    private final Map<ByteString, byte[]> values = new ConcurrentHashMap<>();
+    private volatile int latency;
+
+    private FakeConode(int port, PublicKey writer, int base, int maxHeight) throws Exception {
+        super(new InetSocketAddress("localhost", port));
+        // The websocket port is the port of the server identity + 1.
+        this.chain = new FakeChain(new URI("tcp://localhost:" + (port - 1)), base, maxHeight);
+        this.writer = writer;
+    }
+
+    /**
+     * Starts a FakeConode on a free port and waits for it to accept connections.
+     *
+     * @param writer if not null, SetKeyValue requests need a SHA256withRSA signature by this key on
+     *               (key | value).
+     */
+    public static FakeConode startNew(PublicKey writer) throws Exception {
+        return startNew(writer, 2, 4);
+    }
+
+    /**
+     * Starts a FakeConode whose skipchain has the given base and maximum height.
+     */
+    public static FakeConode startNew(PublicKey writer, int base, int maxHeight) throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        FakeConode conode = new FakeConode(port, writer, base, maxHeight);
+        conode.start();
+        conode.started.await();
+        return conode;
+    }
+
+    /**
+     * @return the genesis block of the skipchain, to be passed to SkipchainRPC.
+     */
+    public SkipBlock getGenesis() {
+        return chain.getGenesis();
+    }
+
+    public Roster getRoster() {
+        return chain.getRoster();
+    }
+
+    /**
+     * Delays every reply by the given time, which stands for the round trip to a remote conode. The requests are
+     * still processed as they arrive, so the delays of pipelined requests overlap.
+     */
+    public void setLatency(int millis) {
+        latency = millis;
+    }
+
+    /**
+     * Answers GetValue requests for key with the block of other, like a misbehaving conode.
+     */
+    void misanswer(byte[] key, byte[] other) {
+        values.put(ByteString.copyFrom(key), values.get(ByteString.copyFrom(other)));
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        stop();
+        flusher.shutdownNow();
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        String path = conn.getResourceDescriptor().substring(1);
+        byte[] reply;
+        try {
+            reply = reply(path, ByteString.copyFrom(message));
+        } catch (Exception e) {
+            String error = String.valueOf(e.getMessage());
+            if (latency > 0) {
+                flusher.schedule(() -> conn.close(4000, error), latency, TimeUnit.MILLISECONDS);
+            } else {
+                conn.close(4000, error);
+            }
+            return;
+        }
+        if (latency > 0) {
+            // The flusher runs the replies in the order they were scheduled, as they all have the same delay.
+            flusher.schedule(() -> send(conn, reply), latency, TimeUnit.MILLISECONDS);
+        } else {
+            send(conn, reply);
+        }
+    }
+
+    private void send(WebSocket conn, byte[] reply) {
+        if (conn.isOpen()) {
+            conn.send(reply);
+            flusher.schedule(() -> flush(conn), 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Java-WebSocket 1.3.4 loses the write demand of a worker thread if the selector thread finishes the previous
+     * write at the same moment, and the reply then stays queued until the next request arrives. So the demand is
+     * repeated until the reply left. This must not block the worker, as the selector waits for its buffer.
+     */
+    private void flush(WebSocket conn) {
+        if (conn.hasBufferedData() && conn.isOpen()) {
+            onWriteDemand(conn);
+            flusher.schedule(() -> flush(conn), 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private byte[] reply(String path, ByteString msg) throws Exception {
+        switch (path) {
+            case "Status/Request":
+                StatusProto.Request.parseFrom(msg);
+                return StatusProto.Response.newBuilder()
+                        .putSystem("Status", StatusProto.Response.Status.newBuilder()
+                                .putField("Version", "fake").build())
+                        .setServer(chain.getRoster().getNodes().get(0).getProto())
+                        .build().toByteArray();
+            case "Lleap/CreateSkipchain":
+                LleapProto.CreateSkipchain.parseFrom(msg);
+                return LleapProto.CreateSkipchainResponse.newBuilder()
+                        .setVersion(version)
+                        .setSkipblock(chain.genesis)
+                        .build().toByteArray();
+            case "Lleap/SetKeyValue":
+                return setKeyValue(LleapProto.SetKeyValue.parseFrom(msg));
+            case "Lleap/GetValue":
+                byte[] value = values.get(LleapProto.GetValue.parseFrom(msg).getKey());
+                if (value == null) {
+                    throw new IllegalArgumentException("no such key");
+                }
+                return value;
+            case "Skipchain/GetSingleBlock":
+                SkipBlockProto.SkipBlock block = chain.getBlock(SkipchainProto.GetSingleBlock.parseFrom(msg).getId());
+                if (block == null) {
+                    throw new IllegalArgumentException("no such block");
+                }
+                return block.toByteArray();
+            default:
+                throw new IllegalArgumentException("unknown path " + path);
+        }
+    }
+
+    private byte[] setKeyValue(LleapProto.SetKeyValue request) throws Exception {
+        if (writer != null) {
+            Signature verify = Signature.getInstance("SHA256withRSA");
+            verify.initVerify(writer);
+            verify.update(request.getKey().asReadOnlyByteBuffer());
+            verify.update(request.getValue().asReadOnlyByteBuffer());
+            if (!verify.verify(request.getSignature().toByteArray())) {
+                throw new IllegalArgumentException("wrong signature");
+            }
+        }
+        LleapProto.GetValueResponse resp;
+        synchronized (chain) {
+            if (values.containsKey(request.getKey())) {
+                throw new IllegalArgumentException("key already exists");
+            }
+            resp = chain.append(request.getKey().toByteArray(), request.getValue().toByteArray(),
+                    request.getSignature().toByteArray());
+            values.put(request.getKey(), resp.toByteArray());
+        }
+        return LleapProto.SetKeyValueResponse.newBuilder()
+                .setVersion(version)
+                .setSkipblockid(resp.getSkipblock().getHash())
+                .build().toByteArray();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        // Like the Go conodes, answer without waiting for Nagle's algorithm.
+        ByteChannel channel = ((WebSocketImpl) conn).channel;
+        if (channel instanceof SocketChannel) {
+            try {
+                ((SocketChannel) channel).socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                conn.close(4000, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
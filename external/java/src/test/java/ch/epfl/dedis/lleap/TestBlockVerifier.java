@@ -0,0 +1,96 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.crypto.KeyPair;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.crypto.VerificationKey;
+import ch.epfl.dedis.proto.LleapProto;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests BlockVerifier on blocks signed by a FakeChain.
+ */
+public class TestBlockVerifier {
+    private static FakeChain chain;
+    private static BlockVerifier verifier;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        chain = new FakeChain();
+        verifier = new BlockVerifier(chain.getGenesis());
+    }
+
+    @Test
+    public void verifySingle() throws Exception {
+        KeyValueBlock kvb = new KeyValueBlock(chain.getValue(1, "key".getBytes(), "value".getBytes()));
+        assertTrue(verifier.verify(kvb));
+        assertTrue(kvb.verifyBlock(chain.getGenesis()));
+        assertTrue(kvb.verifyBlock(chain.getGenesis().toByteArray()));
+    }
+
+    @Test
+    public void verifyTampered() throws Exception {
+        LleapProto.GetValueResponse resp = chain.getValue(1, "key".getBytes(), "value".getBytes());
+        byte[] sig = resp.getForwardlink().getSignature().getSig().toByteArray();
+        sig[40] ^= 1;
+        LleapProto.GetValueResponse badSig = resp.toBuilder().setForwardlink(resp.getForwardlink().toBuilder()
+                .setSignature(resp.getForwardlink().getSignature().toBuilder().setSig(ByteString.copyFrom(sig))))
+                .build();
+        assertFalse(verifier.verify(new KeyValueBlock(badSig)));
+
+        LleapProto.GetValueResponse badLink = resp.toBuilder().setForwardlink(resp.getForwardlink().toBuilder()
+                .setTo(ByteString.copyFromUtf8("other block"))).build();
+        assertFalse(verifier.verify(new KeyValueBlock(badLink)));
+    }
+
+    @Test
+    public void verifyList() throws Exception {
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            blocks.add(new KeyValueBlock(chain.getValue(i + 1, ("key" + i).getBytes(), "value".getBytes())));
+        }
+        for (boolean ok : verifier.verify(blocks)) {
+            assertTrue(ok);
+        }
+
+        // A bad signature only fails its own block.
+        LleapProto.GetValueResponse resp = blocks.get(70).getResponse();
+        byte[] sig = resp.getForwardlink().getSignature().getSig().toByteArray();
+        sig[0] ^= 1;
+        blocks.set(70, new KeyValueBlock(resp.toBuilder().setForwardlink(resp.getForwardlink().toBuilder()
+                .setSignature(resp.getForwardlink().getSignature().toBuilder().setSig(ByteString.copyFrom(sig))))
+                .build()));
+        List<Boolean> result = verifier.verify(blocks);
+        assertEquals(blocks.size(), result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(i != 70, result.get(i));
+        }
+    }
+
+    @Test
+    public void schnorrBatch() {
+        KeyPair kp = new KeyPair();
+        VerificationKey vk = new VerificationKey(kp.Point);
+        List<byte[]> msgs = new ArrayList<>();
+        List<SchnorrSig> sigs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            byte[] msg = ("message" + i).getBytes();
+            SchnorrSig sig = new SchnorrSig(msg, kp.Scalar);
+            assertTrue(sig.verify(msg, kp.Point));
+            assertTrue(vk.verify(msg, sig));
+            msgs.add(msg);
+            sigs.add(sig);
+        }
+        assertTrue(vk.verifyBatch(msgs, sigs));
+        assertFalse(sigs.get(0).verify(msgs.get(1), kp.Point));
+
+        msgs.set(3, "other message".getBytes());
+        assertFalse(vk.verifyBatch(msgs, sigs));
+    }
+}
@@ -0,0 +1,122 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.BlockCache;
+import ch.epfl.dedis.lib.BlockStore;
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.lib.SkipblockId;
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import ch.epfl.dedis.proto.LleapProto;
+import ch.epfl.dedis.proto.SkipBlockProto;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that SkipchainRPC answers from its BlockCache without contacting the roster, which is unreachable here,
+ * and what it puts into the cache.
+ */
+public class TestCachedSkipchainRPC {
+    private static FakeChain unreachableChain() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        // The websocket port is the port of the server identity + 1.
+        return new FakeChain(new URI("tcp://localhost:" + (port - 1)));
+    }
+
+    @Test
+    public void keyValueBlockFromStore() throws Exception {
+        FakeChain chain = unreachableChain();
+        byte[] key = "key".getBytes();
+        LleapProto.GetValueResponse resp = chain.getValue(1, key, "value".getBytes());
+
+        SkipchainRPC sc = new SkipchainRPC(chain.getGenesis().toByteArray());
+        assertThrows(CothorityCommunicationException.class, () -> sc.getKeyValueBlock(key));
+
+        BlockStore store = new BlockStore(Files.createTempDirectory("blockstore").toFile());
+        store.put(sc.keyValueId(key), resp.toByteArray());
+        sc.setBlockCache(new BlockCache(1024 * 1024, store));
+
+        KeyValueBlock kvb = sc.getKeyValueBlock(key);
+        assertArrayEquals("value".getBytes(), kvb.getValue());
+        assertTrue(kvb.isVerified(chain.getGenesis().getId()));
+        assertTrue(kvb.verifyBlock(chain.getGenesis()));
+        assertEquals(1, sc.getBlockCache().getHits());
+        store.close();
+    }
+
+    @Test
+    public void keyValueBlockOfOtherKey() throws Exception {
+        FakeChain chain = unreachableChain();
+        LleapProto.GetValueResponse resp = chain.getValue(1, "key".getBytes(), "value".getBytes());
+
+        SkipchainRPC sc = new SkipchainRPC(chain.getGenesis().toByteArray());
+        sc.setBlockCache(new BlockCache(1024 * 1024));
+        sc.getBlockCache().put(sc.keyValueId("other".getBytes()), resp.toByteArray());
+        assertThrows(CothorityCommunicationException.class, () -> sc.getKeyValueBlock("other".getBytes()));
+    }
+
+    @Test
+    public void otherKeyNotCached() throws Exception {
+        FakeConode conode = FakeConode.startNew(null);
+        SkipchainRPC sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+        sc.setBlockCache(new BlockCache(1024 * 1024));
+        sc.setKeyValue("key".getBytes(), "value".getBytes(), new byte[0]);
+        sc.setKeyValue("other".getBytes(), "other value".getBytes(), new byte[0]);
+        conode.misanswer("other".getBytes(), "key".getBytes());
+
+        assertThrows(CothorityCommunicationException.class, () -> sc.getKeyValueBlock("other".getBytes()));
+        assertNull(sc.getBlockCache().get(sc.keyValueId("other".getBytes())));
+        assertArrayEquals("value".getBytes(), sc.getKeyValueBlock("key".getBytes()).getValue());
+        conode.shutdown();
+    }
+
+    @Test
+    public void skipblockFromCache() throws Exception {
+        FakeChain chain = unreachableChain();
+        SkipBlockProto.SkipBlock block = chain.getValue(1, "key".getBytes(), "value".getBytes()).getSkipblock();
+        SkipblockId id = new SkipblockId(block.getHash().toByteArray());
+
+        SkipchainRPC sc = new SkipchainRPC(chain.getGenesis().toByteArray());
+        sc.setBlockCache(new BlockCache(1024 * 1024));
+        assertThrows(CothorityCommunicationException.class, () -> sc.getSkipblock(chain.roster, id));
+
+        sc.getBlockCache().put(id, block.toByteArray());
+        SkipBlock sb = sc.getSkipblock(chain.roster, id);
+        assertArrayEquals(block.getHash().toByteArray(), sb.getHash());
+    }
+
+    @Test
+    public void skipblockCachedOnFetch() throws Exception {
+        FakeConode conode = FakeConode.startNew(null);
+        SkipchainRPC sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+        sc.setBlockCache(new BlockCache(1024 * 1024));
+        List<SkipblockId> ids = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            SkipBlockProto.SkipBlock block = conode.chain.append(("key" + i).getBytes(), "value".getBytes(),
+                    new byte[0]).getSkipblock();
+            ids.add(new SkipblockId(block.getHash().toByteArray()));
+        }
+
+        // Block 1 has its one forward link, block 2 only one of its two.
+        sc.getSkipblock(conode.getRoster(), ids.get(0));
+        sc.getSkipblock(conode.getRoster(), ids.get(1));
+        sc.getSkipblock(conode.getRoster(), ids.get(2));
+        assertNotNull(sc.getBlockCache().get(ids.get(0)));
+        assertNull(sc.getBlockCache().get(ids.get(1)));
+        assertNull(sc.getBlockCache().get(ids.get(2)));
+        conode.shutdown();
+
+        SkipBlock sb = sc.getSkipblock(conode.getRoster(), ids.get(0));
+        assertArrayEquals(ids.get(0).getId(), sb.getHash());
+        assertEquals(1, sb.getForwardLinks().size());
+        assertThrows(CothorityCommunicationException.class, () -> sc.getSkipblock(conode.getRoster(), ids.get(1)));
+    }
+}
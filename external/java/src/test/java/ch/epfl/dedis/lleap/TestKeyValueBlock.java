@@ -0,0 +1,90 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.exception.CothorityException;
+import ch.epfl.dedis.proto.LleapProto;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the views on the key/value pair of a KeyValueBlock.
+ */
+public class TestKeyValueBlock {
+    private static FakeChain chain;
+    private static KeyPair writer;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        chain = new FakeChain();
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        writer = gen.generateKeyPair();
+    }
+
+    private static byte[] sign(byte[] key, byte[] value) throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(writer.getPrivate());
+        signature.update(key);
+        signature.update(value);
+        return signature.sign();
+    }
+
+    @Test
+    public void views() throws Exception {
+        byte[] key = "key".getBytes();
+        byte[] value = new byte[100000];
+        value[12345] = 42;
+        KeyValueBlock kvb = new KeyValueBlock(chain.getValue(1, key, value, sign(key, value)).toByteArray());
+
+        assertEquals(ByteString.copyFrom(value), kvb.getValueBS());
+        assertArrayEquals(value, kvb.getValue());
+        assertArrayEquals(key, kvb.getKey());
+        assertArrayEquals(key, kvb.getKeyBS().toByteArray());
+        assertEquals(kvb.getSignatureBS(), ByteString.copyFrom(kvb.getSignature()));
+        assertArrayEquals(kvb.getTimestamp(), kvb.getTimestampBS().toByteArray());
+
+        ByteBuffer buf = kvb.getValueBuffer();
+        assertTrue(buf.isReadOnly());
+        assertEquals(value.length, buf.remaining());
+        assertEquals(42, buf.get(12345));
+        assertThrows(ReadOnlyBufferException.class, () -> buf.put(0, (byte) 1));
+
+        byte[] signed = new byte[key.length + value.length];
+        System.arraycopy(key, 0, signed, 0, key.length);
+        System.arraycopy(value, 0, signed, key.length, value.length);
+        assertArrayEquals(signed, kvb.getSignedMsg());
+        assertEquals(ByteString.copyFrom(signed), kvb.getSignedMsgBS());
+    }
+
+    @Test
+    public void verifySignature() throws Exception {
+        byte[] key = "key".getBytes();
+        byte[] value = "value".getBytes();
+        KeyValueBlock kvb = new KeyValueBlock(chain.getValue(1, key, value, sign(key, value)));
+        assertTrue(kvb.verifySignature(writer.getPublic()));
+
+        KeyValueBlock other = new KeyValueBlock(chain.getValue(1, key, "other".getBytes(), sign(key, value)));
+        assertFalse(other.verifySignature(writer.getPublic()));
+    }
+
+    @Test
+    public void lazyParsing() throws Exception {
+        LleapProto.GetValueResponse resp = chain.getValue(1, "key".getBytes(), "value".getBytes());
+        ByteString garbage = ByteString.copyFrom(new byte[16]).concat(ByteString.copyFrom(new byte[]{(byte) 0xff}));
+        LleapProto.GetValueResponse bad = resp.toBuilder()
+                .setSkipblock(resp.getSkipblock().toBuilder().setData(garbage)).build();
+
+        // The data is only parsed when a field is read.
+        KeyValueBlock kvb = new KeyValueBlock(bad);
+        assertThrows(CothorityException.class, kvb::getValue);
+        assertFalse(kvb.verifyBlock(chain.getGenesis()));
+    }
+}
@@ -0,0 +1,159 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.ConnectionManager;
+import ch.epfl.dedis.lib.LatencyHistogram;
+import ch.epfl.dedis.lib.Metrics;
+import ch.epfl.dedis.lib.MetricsListener;
+import ch.epfl.dedis.lib.RequestStats;
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records the metrics of the requests to a FakeConode.
+ */
+public class TestMetrics {
+    private static KeyPair writer;
+    private static FakeConode conode;
+    private static SkipchainRPC sc;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        writer = gen.generateKeyPair();
+        conode = FakeConode.startNew(writer.getPublic());
+        sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+    }
+
+    @AfterAll
+    public static void closeAll() throws Exception {
+        conode.shutdown();
+    }
+
+    @AfterEach
+    public void disable() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void requests() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger connects = new AtomicInteger();
+        MetricsListener listener = new MetricsListener() {
+            @Override
+            public void onRequest(String path, URI node, long nanos, int bytesSent, int bytesReceived, boolean ok) {
+                requests.incrementAndGet();
+            }
+
+            @Override
+            public void onConnect(URI node, long connectNanos, long handshakeNanos) {
+                connects.incrementAndGet();
+            }
+        };
+        Metrics.addListener(listener);
+        // so that the connections are opened with metrics enabled
+        ConnectionManager.getDefault().close();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        try {
+            byte[] key = "metrics".getBytes();
+            sc.setKeyValue(key, "value".getBytes(), writer.getPrivate());
+            assertThrows(CothorityCommunicationException.class,
+                    () -> sc.setKeyValue(key, "value".getBytes(), writer.getPrivate()));
+            KeyValueBlock kvb = sc.getKeyValueBlock(key);
+            assertTrue(kvb.verifyBlock(sc.getGenesis()));
+        } finally {
+            Metrics.removeListener(listener);
+        }
+
+        RequestStats set = Metrics.path("Lleap/SetKeyValue");
+        assertEquals(2, set.getRequests());
+        assertEquals(1, set.getErrors());
+        assertTrue(set.getBytesSent() > 2 * 128);
+        assertEquals(0, set.getRetries());
+        RequestStats get = Metrics.path("Lleap/GetValue");
+        assertEquals(1, get.getRequests());
+        assertTrue(get.getBytesReceived() > 0);
+        assertTrue(get.getLatency().getMax() > 0);
+
+        RequestStats node = Metrics.node(sc.getRoster().getNodes().get(0).getAddress());
+        assertEquals(3, node.getRequests());
+        assertEquals(set.getBytesSent() + get.getBytesSent(), node.getBytesSent());
+        assertEquals(3, requests.get());
+        // one connection per service path, each with its own handshake
+        assertEquals(2, connects.get());
+        assertEquals(2, Metrics.getHandshakes().getCount());
+        assertEquals(1, Metrics.getVerifications().getCount());
+        assertEquals(0, Metrics.getVerificationFailures());
+        assertEquals(Long.valueOf(1), Metrics.getErrors().get("CothorityRefusedException"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(
+                new ObjectName("ch.epfl.dedis:type=Metrics,path=" + ObjectName.quote("Lleap/GetValue")),
+                "Requests"));
+        assertEquals(1L, server.getAttribute(new ObjectName("ch.epfl.dedis:type=Metrics"), "Verifications"));
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        Metrics.reset();
+        byte[] key = "disabled".getBytes();
+        sc.setKeyValue(key, "value".getBytes(), writer.getPrivate());
+        assertTrue(sc.getKeyValueBlock(key).verifyBlock(sc.getGenesis()));
+        assertEquals(0, Metrics.path("Lleap/SetKeyValue").getRequests());
+        assertEquals(0, Metrics.path("Lleap/GetValue").getRequests());
+        assertEquals(0, Metrics.getVerifications().getCount());
+    }
+
+    @Test
+    public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.5));
+        for (long us = 1; us <= 1000; us++) {
+            h.record(us * 1000);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000000, h.getMax());
+        assertEquals(500500, h.getMean(), 1);
+        assertEquals(500000, h.percentile(0.5), 500000 * 0.07);
+        assertEquals(990000, h.percentile(0.99), 990000 * 0.07);
+        assertEquals(1000000, h.percentile(1));
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.percentile(0.99));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyHistogram h = new LatencyHistogram();
+        Metrics.setEnabled(true);
+        for (int i = 0; i < 10000; i++) {
+            h.record(i);
+            Metrics.verified(Metrics.start(), true);
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 100000; i++) {
+            h.record(i * 1000L);
+            Metrics.verified(Metrics.start(), true);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+}
@@ -4,10 +4,12 @@ import ch.epfl.dedis.Local;
 import ch.epfl.dedis.lib.ServerIdentity;
 import ch.epfl.dedis.lib.SkipBlock;
 import ch.epfl.dedis.lib.exception.CothorityException;
+import com.google.protobuf.ByteString;
 import org.junit.jupiter.api.Test;
 import javax.xml.bind.DatatypeConverter;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestSkipBlock {
@@ -27,4 +29,15 @@ public class TestSkipBlock {
         SkipBlock sb = new SkipBlock(sbHex);
         assertTrue(sb.getRoster().getAggregate().equals(Local.roster.getAggregate()));
     }
+
+    @Test
+    public void calculateHash() throws CothorityException {
+        SkipBlock sb = new SkipBlock(DatatypeConverter.parseHexBinary(genesisHex));
+        assertTrue(sb.verifyHash());
+
+        byte[] data = sb.getData();
+        data[data.length - 1] ^= 1;
+        SkipBlock tampered = new SkipBlock(sb.getProto().toBuilder().setData(ByteString.copyFrom(data)).build());
+        assertFalse(tampered.verifyHash());
+    }
 }
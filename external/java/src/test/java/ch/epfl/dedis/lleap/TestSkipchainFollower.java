@@ -0,0 +1,155 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.BlockCache;
+import ch.epfl.dedis.lib.crypto.SchnorrSig;
+import ch.epfl.dedis.lib.exception.CothorityCryptoException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Follows the skipchain of a FakeConode.
+ */
+public class TestSkipchainFollower {
+    private FakeConode conode;
+    private SkipchainRPC sc;
+
+    @BeforeEach
+    public void init() throws Exception {
+        conode = FakeConode.startNew(null, 2, 4);
+        sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+    }
+
+    @AfterEach
+    public void close() throws Exception {
+        conode.shutdown();
+    }
+
+    private void write(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            sc.setKeyValue(("key" + i).getBytes(), ("value" + i).getBytes(), new byte[0]);
+        }
+    }
+
+    @Test
+    public void follow() throws Exception {
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        follower.subscribe(blocks::add);
+        assertEquals(0, follower.update());
+
+        write(0, 37);
+        assertEquals(37, follower.update());
+        assertEquals(37, follower.getHead().getIndex());
+        write(37, 42);
+        assertEquals(5, follower.update());
+        assertEquals(0, follower.update());
+
+        assertEquals(42, blocks.size());
+        BlockVerifier verifier = new BlockVerifier(sc.getGenesis());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertArrayEquals(("key" + i).getBytes(), blocks.get(i).getKey());
+            assertTrue(blocks.get(i).verifyBlock(sc.getGenesis()));
+            // The block is a proof on its own.
+            KeyValueBlock saved = new KeyValueBlock(blocks.get(i).toByteArray());
+            assertTrue(verifier.verify(saved), "block " + i);
+        }
+    }
+
+    @Test
+    public void followNewRoster() throws Exception {
+        write(0, 10);
+        conode.chain.changeRoster();
+        write(10, 30);
+
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        follower.subscribe(blocks::add);
+        assertEquals(30, follower.update());
+        assertEquals(30, blocks.size());
+        assertFalse(follower.getRoster().getAggregate().equals(sc.getRoster().getAggregate()));
+
+        write(30, 35);
+        assertEquals(5, follower.update());
+        assertArrayEquals("key34".getBytes(), blocks.get(34).getKey());
+
+        // Up to the forward link into the first block of the new roster, the links are signed by the roster of the
+        // genesis block. The later blocks can't be verified against the genesis block.
+        BlockVerifier verifier = new BlockVerifier(sc.getGenesis());
+        for (int i = 0; i < blocks.size(); i++) {
+            KeyValueBlock saved = new KeyValueBlock(blocks.get(i).toByteArray());
+            assertEquals(i <= 10, verifier.verify(saved), "block " + i);
+            assertEquals(i <= 10, blocks.get(i).verifyBlock(sc.getGenesis()), "block " + i);
+        }
+    }
+
+    @Test
+    public void forgedForwardLink() throws Exception {
+        write(0, 6);
+        // Block 2 is skipped by the hop from the genesis block to block 4.
+        conode.chain.forgeForwardLink(2);
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        follower.subscribe(blocks::add);
+        assertThrows(CothorityCryptoException.class, follower::update);
+        assertEquals(0, blocks.size());
+    }
+
+    @Test
+    public void malformedSignature() throws Exception {
+        write(0, 6);
+        // Find a challenge that is not a point on the curve.
+        byte[] sig = new byte[64];
+        for (sig[0] = 1; ; sig[0]++) {
+            try {
+                new SchnorrSig(sig);
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+        }
+        conode.chain.setSignature(2, sig);
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        follower.subscribe(blocks::add);
+        assertThrows(CothorityCryptoException.class, follower::update);
+        assertEquals(0, blocks.size());
+    }
+
+    @Test
+    public void wrongIndexes() throws Exception {
+        write(0, 20);
+        // The indexes are not covered by the hashes, so a conode can change them.
+        conode.chain.setIndex(5, 15);
+        conode.chain.setIndex(6, 3);
+        conode.chain.setIndex(11, 1);
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        follower.subscribe(blocks::add);
+        follower.update();
+        assertEquals(20, blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertArrayEquals(("key" + i).getBytes(), blocks.get(i).getKey());
+        }
+    }
+
+    @Test
+    public void fillsCache() throws Exception {
+        write(0, 20);
+        sc.setBlockCache(new BlockCache(1024 * 1024));
+        SkipchainFollower follower = new SkipchainFollower(sc);
+        follower.update();
+        conode.shutdown();
+
+        for (int i = 0; i < 20; i++) {
+            KeyValueBlock kvb = sc.getKeyValueBlock(("key" + i).getBytes());
+            assertArrayEquals(("value" + i).getBytes(), kvb.getValue());
+            assertTrue(kvb.verifyBlock(sc.getGenesis()));
+        }
+        assertEquals(20, sc.getBlockCache().getHits());
+    }
+}
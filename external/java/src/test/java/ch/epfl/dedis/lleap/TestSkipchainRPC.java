@@ -14,6 +14,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -96,6 +97,44 @@ public class TestSkipchainRPC {
         assertTrue(verify.verify(kvb.getSignature()));
     }
 
+    /**
+     * Writes the same number of key/value pairs once with a loop of setKeyValue and once with setKeyValues, then
+     * reads them back with getKeyValueBlocks. The throughput of both writes is logged.
+     * @throws Exception
+     */
+    @Test
+    public void writeAndReadBulk() throws Exception {
+        int count = 16;
+        String prefix = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss.SSS").format(new java.util.Date());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sc.setKeyValue((prefix + ".loop." + i).getBytes(), value, privateKey);
+        }
+        double loop = count * 1e9 / (System.nanoTime() - start);
+
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add((prefix + ".bulk." + i).getBytes());
+            values.add(value);
+        }
+        start = System.nanoTime();
+        List<KeyValueResult<Void>> written = sc.setKeyValues(keys, values, privateKey);
+        double bulk = count * 1e9 / (System.nanoTime() - start);
+        logger.info("Wrote {} keys/s with setKeyValue and {} keys/s with setKeyValues", loop, bulk);
+
+        for (KeyValueResult<Void> w : written) {
+            w.get();
+        }
+        List<KeyValueResult<KeyValueBlock>> read = sc.getKeyValueBlocks(keys);
+        assertEquals(count, read.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(keys.get(i), read.get(i).getKey());
+            assertArrayEquals(value, read.get(i).get().getValue());
+        }
+    }
+
     /**
      * This test iterates through the whole skipchain. It does this by starting with
      * the genesis block, and then following the forwardlinks. Each forwardlink is a proof
@@ -0,0 +1,84 @@
+package ch.epfl.dedis.lleap;
+
+import ch.epfl.dedis.lib.SkipBlock;
+import ch.epfl.dedis.lib.exception.CothorityCommunicationException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs SkipchainRPC end to end against a FakeConode.
+ */
+public class TestSkipchainRPCOffline {
+    private static KeyPair writer;
+    private static FakeConode conode;
+    private static SkipchainRPC sc;
+
+    @BeforeAll
+    public static void initAll() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        writer = gen.generateKeyPair();
+        conode = FakeConode.startNew(writer.getPublic());
+        sc = new SkipchainRPC(conode.getGenesis().toByteArray());
+    }
+
+    @AfterAll
+    public static void closeAll() throws Exception {
+        conode.shutdown();
+    }
+
+    @Test
+    public void connect() {
+        assertTrue(sc.verify());
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        byte[] key = "writeAndRead".getBytes();
+        byte[] value = "value".getBytes();
+        sc.setKeyValue(key, value, writer.getPrivate());
+        assertThrows(CothorityCommunicationException.class, () -> sc.setKeyValue(key, value, writer.getPrivate()));
+        assertThrows(CothorityCommunicationException.class,
+                () -> sc.setKeyValue("wrongSignature".getBytes(), value, "".getBytes()));
+
+        KeyValueBlock kvb = sc.getKeyValueBlock(key);
+        assertArrayEquals(value, kvb.getValue());
+        assertTrue(kvb.verifyBlock(sc.getGenesis().toByteArray()));
+        assertTrue(kvb.verifySignature(writer.getPublic()));
+
+        SkipBlock sb = sc.getSkipblock(sc.getRoster(), sc.getGenesis().getId());
+        assertArrayEquals(sc.getGenesis().getHash(), sb.getHash());
+        assertThrows(CothorityCommunicationException.class, () -> sc.getKeyValueBlock("missing".getBytes()));
+    }
+
+    @Test
+    public void bulk() throws Exception {
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(("bulk" + i).getBytes());
+            values.add(("value" + i).getBytes());
+        }
+        for (KeyValueResult<Void> r : sc.setKeyValues(keys, values, writer.getPrivate())) {
+            assertTrue(r.isOk());
+        }
+        List<KeyValueBlock> blocks = new ArrayList<>();
+        for (KeyValueResult<KeyValueBlock> r : sc.getKeyValueBlocks(keys)) {
+            blocks.add(r.get());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(values.get(i), blocks.get(i).getValue());
+        }
+        for (boolean ok : new BlockVerifier(sc.getGenesis()).verify(blocks)) {
+            assertTrue(ok);
+        }
+    }
+}